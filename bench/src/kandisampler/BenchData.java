@@ -0,0 +1,81 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * Synthetic dataset for the benchmarks: outlets, sales history of one
+ * product and weekly seasonal multipliers, deterministic under a seed.
+ * The files are written by DatasetGenerator and read back with the
+ * regular loaders, so the benchmarks run on the same data format as
+ * KandiSampler.
+ * @author nikok
+ */
+public class BenchData {
+    public static final int PRODUCT_ID = 100069;
+
+    public final OutletGroup outlets;
+    public final SalesHistoryStore sales;
+    public final HashMap<Integer, SeasonalData> seasonal;
+
+    /**
+     * Generate the dataset into a temporary directory, removed once loaded
+     * @param outletCount number of outlets
+     * @param issueCount issues of sales history per outlet
+     * @param seed seed of the random data
+     */
+    public BenchData(int outletCount, int issueCount, long seed) throws IOException {
+        this(Files.createTempDirectory("kandidata").toFile(), outletCount, issueCount, seed, true);
+    }
+
+    /**
+     * Generate the dataset into dir and leave the files there
+     * @param dir directory to write the CSV files into, replacing any files already there
+     */
+    public BenchData(File dir, int outletCount, int issueCount, long seed) throws IOException {
+        this(dir, outletCount, issueCount, seed, false);
+    }
+
+    private BenchData(File dir, int outletCount, int issueCount, long seed, boolean temporary) throws IOException {
+        DatasetGenerator generator = new DatasetGenerator();
+        generator.outlet_count = outletCount;
+        generator.issue_count = issueCount;
+        generator.product_id = PRODUCT_ID;
+        generator.seed = seed;
+        generator.dir = dir.getPath();
+        generator.overwrite = true;
+        try {
+            generator.generate();
+            outlets = new OutletGroup();
+            outlets.loadCsv(new File(dir, DatasetGenerator.OUTLET_FILE).getPath());
+            sales = SalesHistoryStore.loadHistory(PRODUCT_ID, new File(dir, DatasetGenerator.SALES_FILE).getPath());
+            seasonal = new HashMap<>();
+            SeasonalData.loadSeasonalData(seasonal, PRODUCT_ID, new File(dir, DatasetGenerator.SEASONAL_FILE).getPath());
+        } finally {
+            if (temporary) {
+                for (File f : dir.listFiles()) f.delete();
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Outlets with sales history, with their sales levels set
+     * from the base predictions, as in KandiSampler.main
+     */
+    public OutletGroup preparedOutlets() {
+        SalesPrediction sp = new SalesPrediction(sales, seasonal, outlets);
+        sp.calculatePredictions(0);
+        OutletGroup group = outlets.trimByOutletSet(sp.getOutletIDs());
+        group.updateSalesLevels(sp);
+        return group;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building probability distributions of sales levels and
+ * comparing a sample to the full group
+ * @author nikok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistributionBenchmark {
+    @Param({"10000", "100000"})
+    public int outlets;
+
+    @Param({"10"})
+    public int fraction;
+
+    private int[] all_levels;
+    private int[] sample_levels;
+    private ProbabilityDistribution all;
+    private ProbabilityDistribution sample;
+    private ReferenceDistribution reference;
+
+    @Setup
+    public void setup() throws IOException {
+        OutletGroup group = new BenchData(outlets, 20, 1).preparedOutlets();
+        all_levels = group.outlet_sales_level;
+        sample_levels = group.getSampleGroup(3, fraction, new SplittableRandom(2)).outlet_sales_level;
+        all = new ProbabilityDistribution(all_levels);
+        sample = new ProbabilityDistribution(sample_levels);
+        reference = new ReferenceDistribution(all);
+    }
+
+    @Benchmark
+    public ProbabilityDistribution buildFull() {
+        return new ProbabilityDistribution(all_levels);
+    }
+
+    @Benchmark
+    public ProbabilityDistribution buildSample() {
+        return new ProbabilityDistribution(sample_levels);
+    }
+
+    @Benchmark
+    public double hellinger() {
+        return all.HellingerDistance(sample);
+    }
+
+    @Benchmark
+    public double hellingerFromSample() {
+        return all.HellingerDistance(new ProbabilityDistribution(sample_levels));
+    }
+
+    @Benchmark
+    public double hellingerReference() {
+        return reference.HellingerDistance(sample_levels);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Loading the CSV files. The files are written into a temporary
+ * directory once per trial and removed afterwards.
+ * @author nikok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoaderBenchmark {
+    @Param({"10000", "100000"})
+    public int outlets;
+
+    @Param({"20"})
+    public int issues;
+
+    private File dir;
+    private String outlet_file;
+    private String sales_file;
+    private String seasonal_file;
+    private String snapshot_file;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("kandibench").toFile();
+        BenchData data = new BenchData(dir, outlets, issues, 1);
+        outlet_file = new File(dir, DatasetGenerator.OUTLET_FILE).getPath();
+        sales_file = new File(dir, DatasetGenerator.SALES_FILE).getPath();
+        seasonal_file = new File(dir, DatasetGenerator.SEASONAL_FILE).getPath();
+        snapshot_file = new File(dir, "dataset.snapshot").getPath();
+        DatasetSnapshot.write(snapshot_file, new String[]{outlet_file, sales_file, seasonal_file},
+                data.outlets, data.sales, data.seasonal, BenchData.PRODUCT_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public OutletGroup outlets() {
+        OutletGroup group = new OutletGroup();
+        group.loadCsv(outlet_file);
+        return group;
+    }
+
+    @Benchmark
+    public SalesHistoryStore salesStore() {
+        return SalesHistoryStore.loadHistory(BenchData.PRODUCT_ID, sales_file);
+    }
+
+    @Benchmark
+    public HashMap<Integer, SalesHistory> salesHistory() {
+        HashMap<Integer, SalesHistory> sales = new HashMap<>();
+        SalesHistory.loadHistory(sales, BenchData.PRODUCT_ID, sales_file);
+        return sales;
+    }
+
+    @Benchmark
+    public StreamingEstimates salesStreaming() {
+        return StreamingEstimates.load(sales_file);
+    }
+
+    @Benchmark
+    public HashMap<Integer, SeasonalData> seasonal() {
+        HashMap<Integer, SeasonalData> seasonal = new HashMap<>();
+        SeasonalData.loadSeasonalData(seasonal, BenchData.PRODUCT_ID, seasonal_file);
+        return seasonal;
+    }
+
+    @Benchmark
+    public DatasetSnapshot snapshot() throws IOException {
+        return DatasetSnapshot.read(snapshot_file);
+    }
+}
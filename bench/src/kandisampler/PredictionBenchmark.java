@@ -0,0 +1,63 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sales predictions over all outlets, with and without a sales rule
+ * @author nikok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PredictionBenchmark {
+    @Param({"10000", "100000"})
+    public int outlets;
+
+    @Param({"20", "100"})
+    public int issues;
+
+    private BenchData data;
+    private OutletGroup group;
+
+    @Setup
+    public void setup() throws IOException {
+        data = new BenchData(outlets, issues, 1);
+        group = data.preparedOutlets();
+    }
+
+    @Benchmark
+    public double predictions() {
+        SalesPrediction sp = new SalesPrediction(data.sales, data.seasonal, group);
+        sp.calculatePredictions(15);
+        return sp.getTotalSalesEstimate();
+    }
+
+    @Benchmark
+    public double predictionsWithRule() {
+        SalesPrediction sp = new SalesPrediction(data.sales, data.seasonal, group);
+        sp.addSalesRule(new SalesRule(1, 100006, 2));
+        sp.calculatePredictions(15);
+        return sp.getTotalSalesEstimate();
+    }
+
+    @Benchmark
+    public SalesHistoryStore buildStore() {
+        return new SalesHistoryStore(data.sales.product_id, data.sales.getOutletIdColumn(), data.sales.getOffsetColumn(),
+                data.sales.getIssueColumn(), data.sales.getDeliveredColumn(), data.sales.getReturnedColumn());
+    }
+}
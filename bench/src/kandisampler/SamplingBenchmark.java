@@ -0,0 +1,51 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Selecting sample groups with each method of OutletGroup.getSampleGroup
+ * @author nikok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SamplingBenchmark {
+    @Param({"10000", "100000"})
+    public int outlets;
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int method;
+
+    @Param({"4", "50"})
+    public int fraction;
+
+    private OutletGroup group;
+    private SplittableRandom rand;
+
+    @Setup
+    public void setup() throws IOException {
+        group = new BenchData(outlets, 20, 1).preparedOutlets();
+        rand = new SplittableRandom(2);
+    }
+
+    @Benchmark
+    public OutletGroup sampleGroup() {
+        return group.getSampleGroup(method, fraction, rand);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands results over to other sinks on a writer thread of its own,
+ * so the threads running the trials never wait for console or file output.
+ * Results go through a bounded queue; when the writers fall behind,
+ * accept blocks until there is room, so memory use stays bounded.
+ * The writer thread takes whatever is in the queue as one batch,
+ * writes it to every sink and only then looks at the queue again.
+ * Sinks are called only from the writer thread, in the order the results
+ * were accepted, so they don't need to be thread safe.
+ * If the writer thread dies, accept and close fail with its error
+ * instead of waiting for room in the queue.
+ * @author nikok
+ */
+public class AsyncResultSink implements ResultSink {
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final long POLL_MS = 100; //how often a full queue checks that the writer is alive
+
+    private static final TrialResult END = new TrialResult(0, -1); //marks the end of the results
+
+    private final ResultSink[] sinks;
+    private final ArrayBlockingQueue<TrialResult> queue;
+    private final int batch;
+    private final Thread writer;
+    private volatile IOException failure;
+
+    /**
+     * @param sinks sinks to write every result to
+     */
+    public AsyncResultSink(ResultSink... sinks) {
+        this(DEFAULT_CAPACITY, sinks);
+    }
+
+    /**
+     * @param capacity results the queue holds before accept blocks
+     * @param sinks sinks to write every result to
+     */
+    public AsyncResultSink(int capacity, ResultSink... sinks) {
+        this.sinks = sinks;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batch = Math.max(1, capacity / 4);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "result-writer");
+        writer.start();
+    }
+
+    @Override
+    public void accept(TrialResult result) throws IOException {
+        checkFailure();
+        try {
+            put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing a result", e);
+        }
+    }
+
+    /**
+     * Queue a result, waiting for room only as long as the writer thread is alive
+     */
+    private void put(TrialResult result) throws InterruptedException, IOException {
+        while (!queue.offer(result, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) {
+                queue.clear();
+                checkFailure();
+                throw new IOException("Result writer stopped");
+            }
+        }
+    }
+
+    private void drain() {
+        ArrayList<TrialResult> results = new ArrayList<>(batch);
+        try {
+            while (true) {
+                results.add(queue.take());
+                queue.drainTo(results, batch - 1);
+                for (TrialResult r : results) {
+                    if (r == END) return;
+                    if (failure != null) continue; //keep emptying the queue so accept and close never block
+                    try {
+                        for (ResultSink sink : sinks) sink.accept(r);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                results.clear();
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException("Result writer interrupted", e);
+        } catch (RuntimeException | Error e) {
+            failure = new IOException("Result writer failed", e);
+            throw e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException("Writing results failed", failure);
+    }
+
+    /**
+     * Wait for the queued results to be written, then close the sinks
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the result writer", e);
+        } finally {
+            for (ResultSink sink : sinks) sink.close();
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes trial results as fixed size binary records, about a quarter of
+ * the size of the CSV lines and without any number formatting.
+ * Layout (big endian): magic and version, then per result
+ * fraction and trial as ints, followed by the sales, chain and branch
+ * Hellinger distances, the prediction and the lower and upper bound of
+ * the prediction as doubles. The bounds are NaN when the trial has no
+ * bootstrap interval. Version 1 files have no bounds.
+ * @author nikok
+ */
+public class BinaryResultSink implements ResultSink {
+    public static final int MAGIC = 0x4B545253; //"KTRS"
+    public static final int VERSION = 2;
+    public static final int RECORD_SIZE = 2 * 4 + 6 * 8;
+
+    private final DataOutputStream out;
+
+    public BinaryResultSink(String filename) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public void accept(TrialResult result) throws IOException {
+        out.writeInt(result.fraction);
+        out.writeInt(result.trial);
+        out.writeDouble(result.hellinger_sales);
+        out.writeDouble(result.hellinger_chain);
+        out.writeDouble(result.hellinger_branch);
+        out.writeDouble(result.prediction);
+        out.writeDouble(result.interval == null ? Double.NaN : result.interval.total_lower);
+        out.writeDouble(result.interval == null ? Double.NaN : result.interval.total_upper);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Read the results of a file written by this sink
+     * @param filename path to the file
+     * @return the results in the order they were written
+     */
+    public static ArrayList<TrialResult> read(String filename) throws IOException {
+        ArrayList<TrialResult> results = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a trial result file: "+filename);
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported trial result file version: "+filename);
+            while (true) {
+                int fraction;
+                try {
+                    fraction = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                TrialResult r = new TrialResult(fraction, in.readInt());
+                r.hellinger_sales = in.readDouble();
+                r.hellinger_chain = in.readDouble();
+                r.hellinger_branch = in.readDouble();
+                r.prediction = in.readDouble();
+                if (version >= 2) {
+                    double lower = in.readDouble();
+                    double upper = in.readDouble();
+                    if (!Double.isNaN(lower)) {
+                        //Only the interval of the total is stored
+                        r.interval = new BootstrapResult();
+                        r.interval.total = r.prediction;
+                        r.interval.total_lower = lower;
+                        r.interval.total_upper = upper;
+                        r.interval.chains = new int[0];
+                        r.interval.chain_totals = new double[0];
+                        r.interval.chain_lower = new double[0];
+                        r.interval.chain_upper = new double[0];
+                    }
+                }
+                results.add(r);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Poisson bootstrap of the per-outlet estimates of a sample.
+ * Each replicate gives every outlet a weight drawn from Poisson(1) instead
+ * of resampling indices, so a replicate is one pass over the estimate array
+ * with no index arrays, and replicates are independent of each other.
+ * The weights of a replicate don't sum to exactly the sample size, so
+ * each replicate is the weighted mean times the base group size,
+ * N * sum(w*v) / sum(w), and replicates where every weight is 0 are left out.
+ * Replicates are split into tasks on a ForkJoinPool, each with its own
+ * random stream split from the seed, so results only depend on the seed.
+ * Intervals are percentiles of the replicate totals.
+ * @author nikok
+ */
+public class Bootstrap {
+    public static final int DEFAULT_REPLICATES = 1000;
+    public static final double DEFAULT_CONFIDENCE = 0.95;
+
+    private static final int REPLICATES_PER_TASK = 64;
+    private static final int POISSON_BITS = 16;
+    //Poisson(1) variate for each 16 bit uniform value: entry u is the smallest k with CDF(k) > u/2^16
+    private static final byte[] POISSON = poissonTable();
+
+    private final int replicates;
+    private final double confidence;
+    private final ForkJoinPool pool;
+
+    public Bootstrap() {
+        this(DEFAULT_REPLICATES, DEFAULT_CONFIDENCE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param replicates number of bootstrap replicates
+     * @param confidence confidence level of the intervals, e.g. 0.95
+     * @param pool pool to run the replicates on
+     */
+    public Bootstrap(int replicates, double confidence, ForkJoinPool pool) {
+        this.replicates = replicates;
+        this.confidence = confidence;
+        this.pool = pool;
+    }
+
+    /**
+     * The table quantizes the probabilities to 1/65536, far below the
+     * Monte Carlo error of any practical number of replicates, and lets
+     * one random long give four weights.
+     */
+    private static byte[] poissonTable() {
+        byte[] table = new byte[1 << POISSON_BITS];
+        double p = Math.exp(-1);
+        double cdf = p;
+        int k = 0;
+        for (int u = 0; u < table.length; u++) {
+            while ((u + 0.5) / table.length > cdf && k < 127) {
+                k++;
+                p /= k;
+                cdf += p;
+            }
+            table[u] = (byte)k;
+        }
+        return table;
+    }
+
+    /**
+     * Confidence intervals of the extrapolated total and chain totals of a sample
+     * @param estimates estimate of each outlet of the sample
+     * @param chainOf chain number of each outlet, from 0 to chains.length-1
+     * @param chains chain ID of each chain number
+     * @param scale extrapolation factor, e.g. base group size / sample size
+     * @param seed seed of the random streams
+     */
+    public BootstrapResult run(double[] estimates, int[] chainOf, int[] chains, final double scale, long seed) {
+        final int n = estimates.length;
+        final int chainCount = chains.length;
+        final int reps = replicates;
+        //Group the estimates by chain, so each chain total is a contiguous sum
+        final int[] offsets = new int[chainCount + 1];
+        for (int i = 0; i < n; i++) offsets[chainOf[i] + 1]++;
+        for (int c = 0; c < chainCount; c++) offsets[c + 1] += offsets[c];
+        final double[] values = new double[n];
+        int[] next = Arrays.copyOf(offsets, chainCount);
+        for (int i = 0; i < n; i++) values[next[chainOf[i]]++] = estimates[i];
+
+        final double size = scale * n; //base group size
+        final double[] totals = new double[reps];
+        final double[] chainTotals = new double[reps * chainCount]; //replicate r, chain c at r*chainCount+c
+        int tasks = (reps + REPLICATES_PER_TASK - 1) / REPLICATES_PER_TASK;
+        final SplittableRandom[] randoms = new SplittableRandom[tasks];
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int t = 0; t < tasks; t++) randoms[t] = root.split();
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                RecursiveAction[] parts = new RecursiveAction[randoms.length];
+                for (int t = 0; t < parts.length; t++) {
+                    final int task = t;
+                    parts[t] = new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            replicate(values, offsets, size, randoms[task], task * REPLICATES_PER_TASK,
+                                    Math.min(reps, (task + 1) * REPLICATES_PER_TASK), totals, chainTotals);
+                        }
+                    };
+                }
+                invokeAll(parts);
+            }
+        });
+
+        //Move the replicates that had any weight to the front
+        int valid = 0;
+        for (int r = 0; r < reps; r++) {
+            if (Double.isNaN(totals[r])) continue;
+            totals[valid] = totals[r];
+            System.arraycopy(chainTotals, r * chainCount, chainTotals, valid * chainCount, chainCount);
+            valid++;
+        }
+
+        BootstrapResult result = new BootstrapResult();
+        result.confidence = confidence;
+        result.replicates = valid;
+        result.chains = chains.clone();
+        result.chain_totals = new double[chainCount];
+        for (int c = 0; c < chainCount; c++) {
+            for (int i = offsets[c]; i < offsets[c + 1]; i++) result.chain_totals[c] += values[i];
+            result.total += result.chain_totals[c];
+            //Same form as the replicates, so constant estimates give the same total exactly
+            result.chain_totals[c] = (n == 0) ? 0 : size * result.chain_totals[c] / n;
+        }
+        result.total = (n == 0) ? 0 : size * result.total / n;
+
+        double alpha = (1 - confidence) / 2;
+        result.total_lower = quantile(totals, 0, valid, alpha);
+        result.total_upper = quantile(totals, 0, valid, 1 - alpha);
+        result.chain_lower = new double[chainCount];
+        result.chain_upper = new double[chainCount];
+        double[] column = new double[valid];
+        for (int c = 0; c < chainCount; c++) {
+            for (int r = 0; r < valid; r++) column[r] = chainTotals[r * chainCount + c];
+            result.chain_lower[c] = quantile(column, 0, valid, alpha);
+            result.chain_upper[c] = quantile(column, 0, valid, 1 - alpha);
+        }
+        return result;
+    }
+
+    /**
+     * Run replicates from to end-1
+     * @param values estimates grouped by chain
+     * @param offsets chain -> first estimate, with an extra end offset
+     * @param size base group size the weighted means are extrapolated to
+     */
+    private static void replicate(double[] values, int[] offsets, double size, SplittableRandom rand,
+            int from, int end, double[] totals, double[] chainTotals) {
+        int chainCount = offsets.length - 1;
+        long bits = 0;
+        int left = 0; //weights left in bits
+        for (int r = from; r < end; r++) {
+            double total = 0;
+            long weights = 0;
+            int base = r * chainCount;
+            for (int c = 0; c < chainCount; c++) {
+                double sum = 0;
+                for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+                    if (left == 0) {
+                        bits = rand.nextLong();
+                        left = 64 / POISSON_BITS;
+                    }
+                    int w = POISSON[(int)bits & 0xFFFF];
+                    sum += w * values[i];
+                    weights += w;
+                    bits >>>= POISSON_BITS;
+                    left--;
+                }
+                chainTotals[base + c] = sum;
+                total += sum;
+            }
+            if (weights == 0) {
+                totals[r] = Double.NaN; //nothing drawn, left out of the intervals
+                continue;
+            }
+            for (int c = 0; c < chainCount; c++) chainTotals[base + c] = size * chainTotals[base + c] / weights;
+            totals[r] = size * total / weights;
+        }
+    }
+
+    /**
+     * Bootstrap the predictions of a sample, extrapolated to the base group
+     * as in KandiSampler.calculatePredictions
+     * @param sp calculated predictions of the sample
+     * @param sample outlets of the sample
+     * @param totalOutletCount size of the base group
+     * @param seed seed of the random streams
+     */
+    public BootstrapResult run(SalesPrediction sp, OutletGroup sample, int totalOutletCount, long seed) {
+        double[] values = sp.getRowEstimates(sample);
+        int[] chainColumn = new int[values.length];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i])) continue;
+            values[n] = values[i];
+            chainColumn[n] = sample.outlet_chain[i];
+            n++;
+        }
+        double[] estimates = Arrays.copyOf(values, n);
+        int[] chainOf = new int[n];
+        int[] chains = OutletGroup.encode(Arrays.copyOf(chainColumn, n), chainOf);
+        double scale = (n == 0) ? 0 : (double)totalOutletCount / n;
+        return run(estimates, chainOf, chains, scale, seed);
+    }
+
+    /**
+     * Quantile of a part of an array, interpolating linearly between the
+     * closest ranks. Finds the ranks by selection instead of sorting,
+     * reordering the part.
+     * @param values array holding the values
+     * @param from first value of the part
+     * @param length number of values
+     * @param p quantile, from 0 to 1
+     */
+    private static double quantile(double[] values, int from, int length, double p) {
+        if (length == 0) return Double.NaN;
+        double pos = p * (length - 1);
+        int i = (int)Math.floor(pos);
+        double low = select(values, from, from + length - 1, from + i);
+        if (i >= length - 1) return low;
+        //After selection everything right of rank i is at least as large
+        double high = values[from + i + 1];
+        for (int j = from + i + 2; j < from + length; j++) high = Math.min(high, values[j]);
+        return low + (pos - i) * (high - low);
+    }
+
+    /**
+     * Quickselect: reorder values[lo..hi] so that position k holds the value
+     * it would have if sorted, smaller or equal values left of it and
+     * larger or equal right of it.
+     * @return the value at position k
+     */
+    private static double select(double[] values, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double t = values[i];
+                    values[i] = values[j];
+                    values[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else break;
+        }
+        return values[k];
+    }
+}
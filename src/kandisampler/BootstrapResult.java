@@ -0,0 +1,35 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Bootstrap confidence intervals of an extrapolated sales total
+ * and of its per chain totals.
+ * @author nikok
+ */
+public class BootstrapResult {
+    public double confidence; //e.g. 0.95
+    public int replicates;
+    public double total; //extrapolated total of the sample itself
+    public double total_lower;
+    public double total_upper;
+    public int[] chains; //chain IDs
+    public double[] chain_totals; //extrapolated total per chain
+    public double[] chain_lower;
+    public double[] chain_upper;
+
+    /**
+     * @param chain chain ID
+     * @return index of the chain in the chain arrays, or -1 if the sample has no outlets of it
+     */
+    public int getChainIndex(int chain) {
+        for (int i = 0; i < chains.length; i++) {
+            if (chains[i] == chain) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loader for the ';' separated data files.
+ * The file is memory mapped and the wanted fields are parsed straight
+ * from the bytes into primitive columns, in a single pass and without
+ * creating a String per line. Decimal numbers may use either comma or
+ * point as the separator. Large files are split into chunks at line
+ * boundaries and the chunks are parsed in parallel; the columns keep
+ * the line order of the file.
+ * Lines where a wanted field is missing or not a number (such as headers)
+ * are skipped and counted.
+ * @author nikok
+ */
+public class CsvLoader {
+    private static final long PARALLEL_THRESHOLD = 4L << 20; //smaller files are parsed in one go
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long MAX_CHUNK = 1L << 30; //a single mapping must stay under 2GB
+    private static final long STREAM_WINDOW = 64L << 20; //mapped at a time when streaming
+
+    private static final int SKIP = Integer.MIN_VALUE;
+
+    /**
+     * Columns parsed from a file.
+     * ints[i] holds the values of int_fields[i] and doubles[i] those of double_fields[i],
+     * each with rows values.
+     */
+    public static class Table {
+        public int rows;
+        public int skipped; //lines that were not parsed
+        public int[][] ints;
+        public double[][] doubles;
+    }
+
+    /**
+     * Receives the parsed fields of a line when streaming a file.
+     * The arrays are reused for every line.
+     */
+    public interface RowHandler {
+        /**
+         * @param ints values of the int fields, in the order they were asked for
+         * @param doubles values of the double fields, in the order they were asked for
+         */
+        void row(int[] ints, double[] doubles);
+    }
+
+    /**
+     * Parse the given fields of every line in a file
+     * @param filename path to the file
+     * @param int_fields field numbers (from 0) to parse as ints
+     * @param double_fields field numbers (from 0) to parse as doubles
+     * @return parsed columns
+     * @throws IOException if the file cannot be read
+     */
+    public static Table load(String filename, int[] int_fields, int[] double_fields) throws IOException {
+        return load(filename, int_fields, double_fields, false);
+    }
+
+    /**
+     * Parse the given fields of every line in a file
+     * @param filename path to the file
+     * @param int_fields field numbers (from 0) to parse as ints
+     * @param double_fields field numbers (from 0) to parse as doubles
+     * @param header true to leave out the first line without parsing or counting it
+     * @return parsed columns
+     * @throws IOException if the file cannot be read
+     */
+    public static Table load(String filename, int[] int_fields, int[] double_fields, boolean header) throws IOException {
+        long start = Metrics.start();
+        int[] kinds = kinds(int_fields, double_fields);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, header);
+            Chunk[] chunks = new Chunk[bounds.length - 1];
+            for (int c = 0; c < chunks.length; c++) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]);
+                chunks[c] = new Chunk(buf, kinds, int_fields.length, double_fields.length, null);
+            }
+            if (chunks.length == 1) {
+                chunks[0].call();
+            } else {
+                ArrayList<Future<Chunk>> parsed = new ArrayList<>();
+                for (Chunk chunk : chunks) {
+                    parsed.add(ForkJoinPool.commonPool().submit(chunk));
+                }
+                for (Future<Chunk> f : parsed) {
+                    try {
+                        f.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while parsing "+filename, e);
+                    } catch (ExecutionException e) {
+                        throw new IOException("Failed to parse "+filename, e.getCause());
+                    }
+                }
+            }
+            Table table = merge(chunks, int_fields.length, double_fields.length);
+            Metrics.stop(Metrics.LOAD_CSV, start);
+            Metrics.count(Metrics.ROWS_LOADED, table.rows);
+            return table;
+        }
+    }
+
+    /**
+     * Parse the given fields of every line in a file and hand them to the handler
+     * one line at a time, in file order. Only a window of the file is mapped at
+     * a time and nothing is collected, so the file can be larger than memory.
+     * @param filename path to the file
+     * @param int_fields field numbers (from 0) to parse as ints
+     * @param double_fields field numbers (from 0) to parse as doubles
+     * @param handler receiver of the parsed lines
+     * @return line counts only; the columns of the table are empty
+     * @throws IOException if the file cannot be read
+     */
+    public static Table stream(String filename, int[] int_fields, int[] double_fields, RowHandler handler) throws IOException {
+        long start = Metrics.start();
+        int[] kinds = kinds(int_fields, double_fields);
+        Table table = new Table();
+        table.ints = new int[0][];
+        table.doubles = new double[0][];
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = 0;
+            long window = STREAM_WINDOW;
+            while (pos < size) {
+                long length = Math.min(window, size - pos);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                int end = (int)length;
+                if (pos + length < size) {
+                    //Parse only up to the last complete line of the window
+                    while (end > 0 && buf.get(end - 1) != '\n') end--;
+                    if (end == 0) {
+                        if (window >= MAX_CHUNK) throw new IOException("Line too long in "+filename);
+                        window = window * 2;
+                        continue;
+                    }
+                    buf.limit(end);
+                }
+                Chunk chunk = new Chunk(buf, kinds, int_fields.length, double_fields.length, handler);
+                chunk.call();
+                table.rows += chunk.rows;
+                table.skipped += chunk.skipped;
+                pos += end;
+            }
+        }
+        Metrics.stop(Metrics.LOAD_CSV, start);
+        Metrics.count(Metrics.ROWS_LOADED, table.rows);
+        return table;
+    }
+
+    /**
+     * @return kinds[field]: the int column of the field, -(double column + 1), or SKIP
+     */
+    private static int[] kinds(int[] int_fields, int[] double_fields) {
+        int fieldCount = 0;
+        for (int f : int_fields) fieldCount = Math.max(fieldCount, f + 1);
+        for (int f : double_fields) fieldCount = Math.max(fieldCount, f + 1);
+        int[] kinds = new int[fieldCount];
+        Arrays.fill(kinds, SKIP);
+        for (int i = 0; i < int_fields.length; i++) kinds[int_fields[i]] = i;
+        for (int i = 0; i < double_fields.length; i++) kinds[double_fields[i]] = -(i + 1);
+        return kinds;
+    }
+
+    /**
+     * Split the file at line starts into chunks of roughly equal size
+     * @param header true to start the first chunk after the first line
+     * @return chunk start positions, followed by the file size
+     */
+    private static long[] chunkBounds(FileChannel channel, boolean header) throws IOException {
+        long size = channel.size();
+        int count = 1;
+        if (size > PARALLEL_THRESHOLD) {
+            count = Runtime.getRuntime().availableProcessors() * 4;
+            count = (int)Math.min(count, Math.max(1, size / MIN_CHUNK));
+        }
+        count = (int)Math.max(count, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] bounds = new long[count + 1];
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        if (header) bounds[0] = nextLineStart(channel, 0, probe);
+        for (int c = 1; c < count; c++) {
+            long pos = Math.max(bounds[c - 1], size * c / count);
+            bounds[c] = nextLineStart(channel, pos, probe);
+        }
+        bounds[count] = size;
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long pos, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (pos < size) {
+            probe.clear();
+            int read = channel.read(probe, pos);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') return pos + i + 1;
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    private static Table merge(Chunk[] chunks, int intCount, int doubleCount) {
+        Table table = new Table();
+        for (Chunk chunk : chunks) {
+            table.rows += chunk.rows;
+            table.skipped += chunk.skipped;
+        }
+        table.ints = new int[intCount][];
+        table.doubles = new double[doubleCount][];
+        if (chunks.length == 1) {
+            //Trim the single chunk's columns instead of copying them piecewise
+            for (int i = 0; i < intCount; i++) table.ints[i] = Arrays.copyOf(chunks[0].ints[i], table.rows);
+            for (int i = 0; i < doubleCount; i++) table.doubles[i] = Arrays.copyOf(chunks[0].doubles[i], table.rows);
+            return table;
+        }
+        for (int i = 0; i < intCount; i++) table.ints[i] = new int[table.rows];
+        for (int i = 0; i < doubleCount; i++) table.doubles[i] = new double[table.rows];
+        int pos = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < intCount; i++) System.arraycopy(chunk.ints[i], 0, table.ints[i], pos, chunk.rows);
+            for (int i = 0; i < doubleCount; i++) System.arraycopy(chunk.doubles[i], 0, table.doubles[i], pos, chunk.rows);
+            pos += chunk.rows;
+        }
+        return table;
+    }
+
+    /**
+     * Parser for one mapped part of the file
+     */
+    private static class Chunk implements Callable<Chunk> {
+        private static final double[] POW10 = new double[23];
+        static {
+            POW10[0] = 1.0;
+            for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+        }
+
+        private final ByteBuffer buf;
+        private final int[] kinds;
+        private final int[] line_ints;
+        private final double[] line_doubles;
+        private final RowHandler handler; //null to collect the rows into columns
+        private int capacity;
+        int rows;
+        int skipped;
+        int[][] ints;
+        double[][] doubles;
+
+        private int pos;
+        private boolean failed; //current field was not a valid number
+
+        Chunk(ByteBuffer buf, int[] kinds, int intCount, int doubleCount, RowHandler handler) {
+            this.buf = buf;
+            this.kinds = kinds;
+            this.line_ints = new int[intCount];
+            this.line_doubles = new double[doubleCount];
+            this.handler = handler;
+            this.capacity = (handler != null) ? 0 : Math.max(16, buf.limit() / 32); //rough guess of line count, grown when needed
+            this.ints = new int[intCount][capacity];
+            this.doubles = new double[doubleCount][capacity];
+        }
+
+        @Override
+        public Chunk call() {
+            int limit = buf.limit();
+            pos = 0;
+            while (pos < limit) {
+                parseLine(limit);
+            }
+            return this;
+        }
+
+        private void parseLine(int limit) {
+            int lineStart = pos;
+            int field = 0;
+            int found = 0;
+            boolean ok = true;
+            while (pos < limit) {
+                int kind = (field < kinds.length) ? kinds[field] : SKIP;
+                failed = false;
+                if (kind == SKIP) {
+                    skipField(limit);
+                } else if (kind >= 0) {
+                    line_ints[kind] = parseInt(limit);
+                    found++;
+                } else {
+                    line_doubles[-kind - 1] = parseDouble(limit);
+                    found++;
+                }
+                ok &= !failed;
+                if (pos < limit && buf.get(pos) == ';') {
+                    pos++;
+                    field++;
+                    continue;
+                }
+                break;
+            }
+            //Step over the line end
+            while (pos < limit && buf.get(pos) != '\n') pos++;
+            if (pos < limit) pos++;
+
+            if (ok && found == line_ints.length + line_doubles.length) {
+                addRow();
+            } else if (!isBlank(lineStart, pos)) {
+                skipped++;
+            }
+        }
+
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b != '\n' && b != '\r' && b != ' ') return false;
+            }
+            return true;
+        }
+
+        private void addRow() {
+            if (handler != null) {
+                handler.row(line_ints, line_doubles);
+                rows++;
+                return;
+            }
+            if (rows >= capacity) {
+                capacity = capacity * 2;
+                for (int i = 0; i < ints.length; i++) ints[i] = Arrays.copyOf(ints[i], capacity);
+                for (int i = 0; i < doubles.length; i++) doubles[i] = Arrays.copyOf(doubles[i], capacity);
+            }
+            for (int i = 0; i < line_ints.length; i++) ints[i][rows] = line_ints[i];
+            for (int i = 0; i < line_doubles.length; i++) doubles[i][rows] = line_doubles[i];
+            rows++;
+        }
+
+        private static boolean isFieldEnd(byte b) {
+            return b == ';' || b == '\n' || b == '\r';
+        }
+
+        private void skipField(int limit) {
+            while (pos < limit && !isFieldEnd(buf.get(pos))) pos++;
+        }
+
+        private int parseInt(int limit) {
+            boolean negative = false;
+            if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                negative = buf.get(pos) == '-';
+                pos++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (pos < limit) {
+                int d = buf.get(pos) - '0';
+                if (d < 0 || d > 9) break;
+                value = value * 10 + d;
+                digits++;
+                pos++;
+                if (value > 1L + Integer.MAX_VALUE) {
+                    failed = true;
+                    skipField(limit);
+                    return 0;
+                }
+            }
+            if (digits == 0 || (pos < limit && !isFieldEnd(buf.get(pos)))) {
+                failed = true;
+                skipField(limit);
+                return 0;
+            }
+            if (negative) value = -value;
+            if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+                failed = true;
+                return 0;
+            }
+            return (int)value;
+        }
+
+        private double parseDouble(int limit) {
+            int start = pos;
+            boolean negative = false;
+            if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                negative = buf.get(pos) == '-';
+                pos++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int decimals = -1; //digits after the separator, -1 before it
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (decimals >= 0) decimals++;
+                } else if ((b == ',' || b == '.') && decimals < 0) {
+                    decimals = 0;
+                } else {
+                    break;
+                }
+                pos++;
+            }
+            if (pos < limit && !isFieldEnd(buf.get(pos)) || digits > 15 || decimals >= POW10.length) {
+                //Exponents, very long numbers or garbage: leave it to the JDK
+                skipField(limit);
+                return parseDoubleSlow(start, pos);
+            }
+            if (digits == 0) {
+                failed = true;
+                return 0;
+            }
+            //Both mantissa and the power of ten are exact, so the division rounds only once
+            double value = (decimals > 0) ? mantissa / POW10[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+
+        private double parseDoubleSlow(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(from + i);
+            try {
+                return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII).replace(',', '.'));
+            } catch (NumberFormatException e) {
+                failed = true;
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes trial results as ";" separated lines:
+ * Hellinger distance of sales ; chain ; branch ; average ; sales estimate ; sample size compared to full group (%)
+ * followed by the lower and upper bound of the estimate when the trial has a bootstrap interval.
+ * Results of a sweep over many products can start with the product ID.
+ * @author nikok
+ */
+public class CsvResultSink implements ResultSink {
+    public static final String HEADER = "Hellinger Distance for... sales ; chain ; group; average ; Estimated sales ; sample group size%";
+
+    private final Writer out;
+    private final boolean closeOut;
+    private final boolean productColumn; //write the product ID first
+    private final StringBuilder line = new StringBuilder(128);
+
+    /**
+     * @param filename file to write, replaced if it exists
+     */
+    public CsvResultSink(String filename) throws IOException {
+        this(filename, false);
+    }
+
+    /**
+     * @param filename file to write, replaced if it exists
+     * @param productColumn whether to start every line with the product ID of the result
+     */
+    public CsvResultSink(String filename, boolean productColumn) throws IOException {
+        this(new BufferedWriter(new FileWriter(filename)), true, productColumn);
+    }
+
+    /**
+     * @param out writer to write the lines to
+     * @param closeOut whether closing the sink closes the writer, false for e.g. System.out
+     */
+    public CsvResultSink(Writer out, boolean closeOut) {
+        this(out, closeOut, false);
+    }
+
+    /**
+     * @param out writer to write the lines to
+     * @param closeOut whether closing the sink closes the writer, false for e.g. System.out
+     * @param productColumn whether to start every line with the product ID of the result
+     */
+    public CsvResultSink(Writer out, boolean closeOut, boolean productColumn) {
+        this.out = out;
+        this.closeOut = closeOut;
+        this.productColumn = productColumn;
+    }
+
+    @Override
+    public void accept(TrialResult result) throws IOException {
+        line.setLength(0);
+        if (productColumn) line.append(result.product_id).append(';');
+        format(result, line);
+        line.append(System.lineSeparator());
+        out.append(line);
+    }
+
+    /**
+     * Append the line of a result, without a line separator
+     */
+    public static StringBuilder format(TrialResult r, StringBuilder sb) {
+        sb.append(r.hellinger_sales).append(';')
+                .append(r.hellinger_chain).append(';')
+                .append(r.hellinger_branch).append(';')
+                .append((r.hellinger_sales + r.hellinger_chain + r.hellinger_branch) / 3.0).append(';')
+                .append(r.prediction).append(';')
+                .append(100.0 / r.fraction);
+        if (r.interval != null) {
+            sb.append(';').append(r.interval.total_lower).append(';').append(r.interval.total_upper);
+        }
+        return sb;
+    }
+
+    public static String format(TrialResult r) {
+        return format(r, new StringBuilder(128)).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeOut) out.close();
+        else out.flush();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic outlet, sales history and seasonal CSV files
+ * in the formats OutletGroup.loadCsv, SalesHistory.loadHistory and
+ * SeasonalData.loadSeasonalData read, for testing at scale without
+ * the real data.
+ * Chains, branches and languages are drawn from Zipf distributions,
+ * so with skew above 0 a few values hold most of the outlets.
+ * Each outlet has its own random stream split from the seed, so the
+ * output only depends on the settings and the seed.
+ * Rows are written as they are generated, and memory use does not
+ * grow with the number of outlets.
+ * Files already in dir are only replaced with overwrite=true, so the
+ * generator never clobbers the real data by accident.
+ * Usage: DatasetGenerator [key=value ...], keys being the field names
+ * below, e.g. DatasetGenerator outlet_count=2000000 seed=7 dir=data/big
+ * @author nikok
+ */
+public class DatasetGenerator {
+    public int outlet_count = 100000;
+    public int issue_count = 52; //issues of sales history per outlet
+    public int chain_count = 50;
+    public int branch_count = 10;
+    public int language_count = 3;
+    public double skew = 1.0; //Zipf exponent of chains, branches, languages and sales levels, 0 for uniform
+    public int max_sales_level = 200; //average sold copies of the best selling outlets
+    public int product_id = 100069;
+    public long seed = 1;
+    public String dir = "data/generated";
+    public boolean overwrite = false; //replace files already in dir
+
+    public static final String OUTLET_FILE = "outlet_data.csv";
+    public static final String SALES_FILE = "sales_history.csv";
+    public static final String SEASONAL_FILE = "seasonal_data.csv";
+
+    private static final int FIRST_OUTLET = 200000;
+    private static final int FIRST_CHAIN = 100000;
+
+    /**
+     * Write outlet_data.csv, sales_history.csv and seasonal_data.csv into dir
+     * @throws IOException if writing fails, or a file exists and overwrite is not set
+     */
+    public void generate() throws IOException {
+        if (!overwrite) {
+            for (String name : new String[]{OUTLET_FILE, SALES_FILE, SEASONAL_FILE}) {
+                File f = new File(dir, name);
+                if (f.exists()) throw new IOException(f.getPath()+" already exists, set overwrite=true to replace it");
+            }
+        }
+        new File(dir).mkdirs();
+        Zipf chains = new Zipf(chain_count, skew);
+        Zipf branches = new Zipf(branch_count, skew);
+        Zipf languages = new Zipf(language_count, skew);
+        Zipf levels = new Zipf(max_sales_level, skew);
+        SplittableRandom root = new SplittableRandom(seed);
+
+        try (CsvWriter outlets = new CsvWriter(new File(dir, OUTLET_FILE).getPath());
+                CsvWriter sales = new CsvWriter(new File(dir, SALES_FILE).getPath());
+                CsvWriter seasonal = new CsvWriter(new File(dir, SEASONAL_FILE).getPath())) {
+            outlets.text(OutletGroup.CSV_HEADER).newLine();
+            for (int i = 0; i < outlet_count; i++) {
+                SplittableRandom rand = root.split();
+                int outlet_id = FIRST_OUTLET + i;
+                outlets.value(outlet_id).value(FIRST_CHAIN + chains.next(rand))
+                        .value(1 + branches.next(rand)).last(1 + languages.next(rand));
+
+                //Sales level falls with the Zipf rank, and drifts slowly over the issues
+                double level = (double)max_sales_level / (1 + levels.next(rand));
+                for (int issue = 1; issue <= issue_count; issue++) {
+                    level = Math.max(0.5, level * (1 + (rand.nextDouble() - 0.5) * 0.1));
+                    int delivered = (int)Math.round(level * (1.2 + rand.nextDouble() * 0.3));
+                    int returned = (int)(delivered * rand.nextDouble() * 0.5);
+                    sales.value(product_id).value(issue).value(outlet_id).value(delivered).last(returned);
+                }
+
+                //Yearly cycle with an outlet specific phase and amplitude
+                double phase = rand.nextDouble() * 52;
+                double amplitude = rand.nextDouble() * 0.5;
+                for (int week = 1; week <= 52; week++) {
+                    double multiplier = 1 + amplitude * Math.sin(2 * Math.PI * (week - phase) / 52) + (rand.nextDouble() - 0.5) * 0.1;
+                    seasonal.value(0).value(outlet_id).value(product_id).value(week).decimal(multiplier);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        DatasetGenerator generator = new DatasetGenerator();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                System.out.println("Ignoring argument "+arg+", expected key=value");
+                continue;
+            }
+            try {
+                Field field = DatasetGenerator.class.getField(kv[0]);
+                if (field.getType() == int.class) field.setInt(generator, Integer.parseInt(kv[1]));
+                else if (field.getType() == long.class) field.setLong(generator, Long.parseLong(kv[1]));
+                else if (field.getType() == double.class) field.setDouble(generator, Double.parseDouble(kv[1]));
+                else if (field.getType() == boolean.class) field.setBoolean(generator, Boolean.parseBoolean(kv[1]));
+                else field.set(generator, kv[1]);
+            } catch (NoSuchFieldException | IllegalAccessException | NumberFormatException e) {
+                System.out.println("Ignoring argument "+arg+": "+e);
+            }
+        }
+        long start_time = System.currentTimeMillis();
+        try {
+            generator.generate();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("Generated "+generator.outlet_count+" outlets with "+generator.issue_count
+                +" issues each into "+generator.dir+" in "+(System.currentTimeMillis() - start_time)+"ms");
+    }
+
+    /**
+     * Zipf distribution over 0..n-1, rank k having weight 1/(k+1)^s.
+     * Drawn by binary search over the cumulative weights.
+     */
+    private static class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double s) {
+            cumulative = new double[Math.max(1, n)];
+            double sum = 0;
+            for (int k = 0; k < cumulative.length; k++) {
+                sum += Math.pow(k + 1, -s);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < cumulative.length; k++) cumulative[k] /= sum;
+        }
+
+        int next(SplittableRandom rand) {
+            int k = Arrays.binarySearch(cumulative, rand.nextDouble());
+            if (k < 0) k = -k - 1;
+            return Math.min(k, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * Writes ";" separated lines into a byte buffer, formatting the
+     * numbers directly without creating strings.
+     */
+    private static class CsvWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        private final byte[] digits = new byte[20];
+
+        CsvWriter(String filename) throws IOException {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        CsvWriter text(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            reserve(b.length);
+            buf.put(b);
+            return this;
+        }
+
+        CsvWriter value(long v) throws IOException {
+            number(v);
+            buf.put((byte)';');
+            return this;
+        }
+
+        /**
+         * Last value of the line
+         */
+        void last(long v) throws IOException {
+            number(v);
+            newLine();
+        }
+
+        /**
+         * Last value of the line with three decimals and a decimal comma, as in the real data
+         */
+        void decimal(double v) throws IOException {
+            long thousandths = Math.round(v * 1000);
+            if (thousandths < 0) {
+                reserve(1);
+                buf.put((byte)'-');
+                thousandths = -thousandths;
+            }
+            number(thousandths / 1000);
+            reserve(4);
+            long fraction = thousandths % 1000;
+            buf.put((byte)',');
+            buf.put((byte)('0' + fraction / 100));
+            buf.put((byte)('0' + fraction / 10 % 10));
+            buf.put((byte)('0' + fraction % 10));
+            newLine();
+        }
+
+        CsvWriter newLine() throws IOException {
+            reserve(1);
+            buf.put((byte)'\n');
+            return this;
+        }
+
+        private void number(long v) throws IOException {
+            reserve(21);
+            if (v < 0) {
+                buf.put((byte)'-');
+                v = -v;
+            }
+            int n = 0;
+            do {
+                digits[n++] = (byte)('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            while (n > 0) buf.put(digits[--n]);
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a loaded dataset: the outlet columns, the sales
+ * history store and the weekly seasonal tables.
+ * The snapshot records the size and modification time of the CSV files
+ * it was made from, and is fresh as long as those have not changed.
+ * Layout (little endian):
+ * header: magic, version, number of sources, then per source
+ * size, modification time and path.
+ * After the header come the arrays, each as type, length and CRC32
+ * followed by the raw values. Arrays are read by memory mapping them
+ * and checking the CRC before copying the values out.
+ * @author nikok
+ */
+public class DatasetSnapshot {
+    public static final int MAGIC = 0x4B534E50; //"KSNP"
+    public static final int VERSION = 1;
+
+    private static final int INT_ARRAY = 1;
+    private static final int DOUBLE_ARRAY = 2;
+    private static final int CHUNK = 1 << 16; //values per write
+
+    public OutletGroup outlets;
+    public SalesHistoryStore sales;
+    public HashMap<Integer, SeasonalData> seasonal;
+    public int seasonal_product; //product the seasonal data was loaded for
+
+    /**
+     * Check if a snapshot exists and was made from the given files as they are now
+     * @param filename path to the snapshot
+     * @param sources paths to the CSV files the snapshot should match
+     * @return true if the snapshot can be used instead of the CSV files
+     */
+    public static boolean isFresh(String filename, String... sources) {
+        if (!new File(filename).isFile()) return false;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            return reader.readHeader(sources);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a snapshot of the given data. The file is written next to the
+     * target and moved in place, so a failed write leaves no broken snapshot.
+     * @param filename path to the snapshot
+     * @param sources paths to the CSV files the data was loaded from
+     */
+    public static void write(String filename, String[] sources, OutletGroup outlets, SalesHistoryStore sales, HashMap<Integer, SeasonalData> seasonal, int seasonal_product) throws IOException {
+        Path target = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(channel);
+            writer.writeHeader(sources);
+
+            writer.writeInts(outlets.outlet_id, outlets.outlet_count);
+            writer.writeInts(outlets.outlet_chain, outlets.outlet_count);
+            writer.writeInts(outlets.outlet_branch, outlets.outlet_count);
+            writer.writeInts(outlets.outlet_language, outlets.outlet_count);
+
+            writer.writeInts(new int[]{sales.product_id}, 1);
+            int[] outletIds = sales.getOutletIdColumn();
+            int[] offsets = sales.getOffsetColumn();
+            writer.writeInts(outletIds, outletIds.length);
+            writer.writeInts(offsets, offsets.length);
+            writer.writeInts(sales.getIssueColumn(), sales.getIssueRowCount());
+            writer.writeInts(sales.getDeliveredColumn(), sales.getIssueRowCount());
+            writer.writeInts(sales.getReturnedColumn(), sales.getIssueRowCount());
+
+            int[] seasonalOutlets = new int[seasonal.size()];
+            double[] weekly = new double[seasonal.size() * 53];
+            int i = 0;
+            for (SeasonalData sd : seasonal.values()) {
+                seasonalOutlets[i] = sd.outlet_id;
+                System.arraycopy(sd.weekly_data, 0, weekly, i * 53, 53);
+                i++;
+            }
+            writer.writeInts(new int[]{seasonal_product}, 1);
+            writer.writeInts(seasonalOutlets, seasonalOutlets.length);
+            writer.writeDoubles(weekly, weekly.length);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a snapshot
+     * @param filename path to the snapshot
+     * @return the dataset in the snapshot
+     * @throws IOException if the snapshot cannot be read, is of another version or a checksum does not match
+     */
+    public static DatasetSnapshot read(String filename) throws IOException {
+        long start = Metrics.start();
+        DatasetSnapshot snapshot = new DatasetSnapshot();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            //With no sources to check, the header only fails on the version
+            if (!reader.readHeader(null)) throw new IOException("Snapshot is not of version "+VERSION);
+
+            int[] outletId = reader.readInts();
+            int[] chain = reader.readInts();
+            int[] branch = reader.readInts();
+            int[] language = reader.readInts();
+            snapshot.outlets = OutletGroup.fromColumns(outletId, chain, branch, language);
+
+            int salesProduct = reader.readInts()[0];
+            int[] salesOutlets = reader.readInts();
+            int[] offsets = reader.readInts();
+            int[] issue = reader.readInts();
+            int[] delivered = reader.readInts();
+            int[] returned = reader.readInts();
+            snapshot.sales = new SalesHistoryStore(salesProduct, salesOutlets, offsets, issue, delivered, returned);
+
+            snapshot.seasonal_product = reader.readInts()[0];
+            int[] seasonalOutlets = reader.readInts();
+            double[] weekly = reader.readDoubles();
+            snapshot.seasonal = new HashMap<>();
+            for (int i = 0; i < seasonalOutlets.length; i++) {
+                SeasonalData sd = new SeasonalData(snapshot.seasonal_product, seasonalOutlets[i]);
+                System.arraycopy(weekly, i * 53, sd.weekly_data, 0, 53);
+                snapshot.seasonal.put(seasonalOutlets[i], sd);
+            }
+        }
+        Metrics.stop(Metrics.LOAD_SNAPSHOT, start);
+        return snapshot;
+    }
+
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(CHUNK * 8).order(ByteOrder.LITTLE_ENDIAN);
+        private long pos;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeHeader(String[] sources) throws IOException {
+            buf.clear();
+            buf.putInt(MAGIC).putInt(VERSION).putInt(sources.length);
+            for (String source : sources) {
+                File f = new File(source);
+                byte[] path = source.getBytes(StandardCharsets.UTF_8);
+                buf.putLong(f.length()).putLong(f.lastModified()).putInt(path.length).put(path);
+            }
+            buf.flip();
+            flush();
+        }
+
+        /**
+         * Write the buffer from its position to its limit
+         */
+        private void flush() throws IOException {
+            while (buf.hasRemaining()) pos += channel.write(buf, pos);
+        }
+
+        void writeInts(int[] values, int count) throws IOException {
+            long header = pos;
+            pos += 16;
+            CRC32 crc = new CRC32();
+            for (int off = 0; off < count; off += CHUNK) {
+                int n = Math.min(CHUNK, count - off);
+                buf.clear();
+                buf.asIntBuffer().put(values, off, n);
+                buf.limit(n * 4);
+                crc.update(buf.duplicate());
+                flush();
+            }
+            writeArrayHeader(header, INT_ARRAY, count, crc.getValue());
+        }
+
+        void writeDoubles(double[] values, int count) throws IOException {
+            long header = pos;
+            pos += 16;
+            CRC32 crc = new CRC32();
+            for (int off = 0; off < count; off += CHUNK) {
+                int n = Math.min(CHUNK, count - off);
+                buf.clear();
+                buf.asDoubleBuffer().put(values, off, n);
+                buf.limit(n * 8);
+                crc.update(buf.duplicate());
+                flush();
+            }
+            writeArrayHeader(header, DOUBLE_ARRAY, count, crc.getValue());
+        }
+
+        private void writeArrayHeader(long at, int type, int count, long crc) throws IOException {
+            ByteBuffer h = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(type).putInt(count).putLong(crc).flip();
+            while (h.hasRemaining()) at += channel.write(h, at);
+        }
+    }
+
+    private static class Reader {
+        private final FileChannel channel;
+        private long pos;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private ByteBuffer read(int length) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (b.hasRemaining()) {
+                if (channel.read(b, pos + b.position()) < 0) throw new IOException("Snapshot ends too early");
+            }
+            pos += length;
+            b.flip();
+            return b;
+        }
+
+        /**
+         * Read the header and optionally check it against the source files
+         * @param sources files to check against, or null to skip the check
+         * @return true if the sources match
+         */
+        boolean readHeader(String[] sources) throws IOException {
+            ByteBuffer b = read(12);
+            if (b.getInt() != MAGIC) throw new IOException("Not a snapshot file");
+            if (b.getInt() != VERSION) return false;
+            int count = b.getInt();
+            boolean fresh = (sources == null || sources.length == count);
+            for (int i = 0; i < count; i++) {
+                b = read(20);
+                long size = b.getLong();
+                long modified = b.getLong();
+                String path = new String(read(b.getInt()).array(), StandardCharsets.UTF_8);
+                if (sources != null && i < sources.length) {
+                    File f = new File(sources[i]);
+                    fresh &= path.equals(sources[i]) && f.isFile() && f.length() == size && f.lastModified() == modified;
+                }
+            }
+            return fresh;
+        }
+
+        private MappedByteBuffer readArray(int type, int size) throws IOException {
+            ByteBuffer h = read(16);
+            if (h.getInt() != type) throw new IOException("Unexpected array type in snapshot");
+            int count = h.getInt();
+            long crc = h.getLong();
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, pos, (long)count * size);
+            CRC32 check = new CRC32();
+            check.update(data.duplicate());
+            if (check.getValue() != crc) throw new IOException("Snapshot checksum mismatch at "+pos);
+            pos += (long)count * size;
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            return data;
+        }
+
+        int[] readInts() throws IOException {
+            MappedByteBuffer data = readArray(INT_ARRAY, 4);
+            int[] values = new int[data.capacity() / 4];
+            data.asIntBuffer().get(values);
+            return values;
+        }
+
+        double[] readDoubles() throws IOException {
+            MappedByteBuffer data = readArray(DOUBLE_ARRAY, 8);
+            double[] values = new double[data.capacity() / 8];
+            data.asDoubleBuffer().get(values);
+            return values;
+        }
+    }
+}
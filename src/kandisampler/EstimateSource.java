@@ -0,0 +1,28 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Source of the weighted base sales estimates used by SalesPrediction.
+ * Base estimate is the weighted estimate of an outlet's sales history,
+ * before seasonal variation and sales rules are applied.
+ * @author nikok
+ */
+public interface EstimateSource {
+
+    /**
+     * @param outlet_id outlet to look for
+     * @return true if there is sales history for the outlet
+     */
+    boolean hasOutlet(int outlet_id);
+
+    /**
+     * @param outlet_id outlet to get the estimate for
+     * @return weighted base estimate of the outlet's sales
+     */
+    double getBaseEstimate(int outlet_id);
+}
@@ -0,0 +1,51 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Sales estimates of an outlet group for every week of the year,
+ * with totals per week and per chain and week.
+ * Week 0 is the estimate without seasonal variation.
+ * @author nikok
+ */
+public class ForecastMatrix {
+    public static final int WEEKS = SeasonalMatrix.WEEKS;
+
+    public int rows; //outlet rows of the group
+    public int outlet_count; //outlets with sales history; the rest have 0 estimates
+    public double[] estimates; //row * WEEKS + week
+    public double[] week_totals;
+    public int[] chains; //chain IDs, in order of first appearance in the group
+    public double[] chain_week_totals; //chain index * WEEKS + week, chain as index to chains
+
+    public double get(int row, int week) {
+        return estimates[row * WEEKS + week];
+    }
+
+    /**
+     * @param chain chain ID
+     * @param week week number, 0-52
+     * @return total of the chain for the week, 0 if the chain has no outlets
+     */
+    public double getChainTotal(int chain, int week) {
+        for (int c = 0; c < chains.length; c++) {
+            if (chains[c] == chain) return chain_week_totals[c * WEEKS + week];
+        }
+        return 0;
+    }
+
+    /**
+     * @return total over weeks 1-52
+     */
+    public double getYearTotal() {
+        double total = 0;
+        for (int week = 1; week < WEEKS; week++) {
+            total += week_totals[week];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Map;
+
+/**
+ * Base estimates read from a map of SalesHistory objects.
+ * Changes to the histories are visible immediately; SalesHistory.addSale
+ * may be called while predictions read the estimates.
+ * To add outlets while predictions run, use a ConcurrentHashMap. A plain
+ * HashMap may only get new outlets when no prediction is reading it.
+ * @author nikok
+ */
+public class HistoryEstimates implements EstimateSource {
+    private final Map<Integer, SalesHistory> sales;
+
+    public HistoryEstimates(Map<Integer, SalesHistory> sales) {
+        this.sales = sales;
+    }
+
+    @Override
+    public boolean hasOutlet(int outlet_id) {
+        return sales.containsKey(outlet_id);
+    }
+
+    @Override
+    public double getBaseEstimate(int outlet_id) {
+        SalesHistory history = sales.get(outlet_id);
+        return (history == null) ? Double.NaN : history.getWeightedEstimate();
+    }
+}
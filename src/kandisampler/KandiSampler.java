@@ -6,11 +6,11 @@
  */
 package kandisampler;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Sales estimator calculating estimates by sample groups,
@@ -19,18 +19,52 @@ import java.util.HashMap;
  */
 public class KandiSampler {
     private static int product_id = 100069; //seasonal model product id
-    private static HashMap<Integer, SalesHistory> sales = new HashMap<>();
+    private static SalesHistoryStore sales;
     private static HashMap<Integer, SeasonalData> seasonal = new HashMap<>();
+    private static String[] data_files = {"data/outlet_data.csv", "data/sales_history.csv", "data/seasonal_data.csv"};
+    private static String snapshot_file = "data/dataset.snapshot";
+    private static DatasetSnapshot snapshot; //binary copy of the data files, null if they were loaded from CSV
+    private static int[] fractions = new int[]{4, 5, 6, 7, 8, 10, 12, 15, 20, 25, 35, 50};
+    private static int randomCount = 100; //trials per fraction
     
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        run(args);
+        Metrics.printSummary(System.out);
+    }
+    
+    private static void run(String[] args) {
+        //Arguments: [--products] [--target=relative error] [--output=file] [--quiet] [--bootstrap[=replicates]] [seed]
+        boolean all_products = false;
+        String output = "calculations.csv"; //.bin for binary output
+        boolean echo = true; //print the results to the console too
+        int replicates = 0; //bootstrap replicates per trial, 0 for no confidence intervals
+        double target = 0; //0 for the full sweep of fractions
+        long seed = System.currentTimeMillis();
+        for (String arg : args) {
+            if (arg.equals("--products")) all_products = true;
+            else if (arg.startsWith("--target=")) target = Double.parseDouble(arg.substring("--target=".length()));
+            else if (arg.startsWith("--output=")) output = arg.substring("--output=".length());
+            else if (arg.equals("--quiet")) echo = false;
+            else if (arg.equals("--bootstrap")) replicates = Bootstrap.DEFAULT_REPLICATES;
+            else if (arg.startsWith("--bootstrap=")) replicates = Integer.parseInt(arg.substring("--bootstrap=".length()));
+            else seed = Long.parseLong(arg);
+        }
+        System.out.println("Random seed for the sample trials: "+seed);
+        
+        if (all_products) {
+            doProductPredictions(seed);
+            return;
+        }
+        
         //Initialize and load data
-        OutletGroup all_outlets = new OutletGroup(); //create outlet group for all available outlets
-        all_outlets.loadCsv("data/outlet_data.csv"); //load outlet data from CSV
-        loadSales(sales); //load sales data
+        snapshot = loadSnapshot(); //use the binary snapshot if it's up to date with the CSV files
+        OutletGroup all_outlets = loadOutlets(); //create outlet group for all available outlets
+        sales = loadSales(); //load sales data
         loadSeasonalData(seasonal); //load seasonal data
+        if (snapshot == null) saveSnapshot(all_outlets);
         SalesPrediction sp = new SalesPrediction(sales, seasonal, all_outlets); //create prediction base for all outlets
         
         sp.calculatePredictions(0); //Calculate basic sales levels for 0 seasonal variance
@@ -38,6 +72,11 @@ public class KandiSampler {
         all_outlets = all_outlets.trimByOutletSet(sp.getOutletIDs());
         all_outlets.updateSalesLevels(sp); //initialize the outlet sales to predicted levels
         
+        if (target > 0) {
+            doSampleSizeSearch(all_outlets, target, seed);
+            return;
+        }
+        
         /*
         //Generate probability distributions
         OutletGroup sample1_outlets = all_outlets.getSampleGroup(1, fraction); //First samplegroup is the first 10% of outlets
@@ -73,122 +112,147 @@ public class KandiSampler {
         
         
         */
-        String filename = "\\calculations.csv";
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        
-        int[] fractions = new int[]{4, 5, 6, 7, 8, 10, 12, 15, 20, 25, 35, 50};
         try {
-            fw = new FileWriter(filename);
-            bw = new BufferedWriter(fw);
-            
-            for (int fraction : fractions) {
-                doPredictions(all_outlets, sp, bw, fraction);
-            }
-        
-            
+            doPredictions(all_outlets, output, echo, replicates, fractions, seed);
         } catch (IOException e) {
-            System.out.println("filewriter or buffered writer failed - problems with saving?");
-        } 
-        
-        try {
-            if (bw != null)
-                bw.close();
-            if (fw != null)
-                fw.close();
-            } catch (IOException e) {
-                System.out.println("closing writers failed");
+            System.out.println("Writing results to "+output+" failed: "+e.getMessage());
         }
-
     }
     
-    private static void doPredictions(OutletGroup all_outlets, SalesPrediction sp, BufferedWriter bw, int fraction) {
-        int randomCount = 100;
-        //Generate the 20 randomly selected groups
-        OutletGroup[] random_groups = new OutletGroup[randomCount];
-        for (int i = 0; i < random_groups.length; i++) {
-            random_groups[i] = all_outlets.getSampleGroup(3, fraction); //3 for random selection
-        }
-        
-        
-        //Calculate the propability distributions
-        ProbabilityDistribution all_sales = new ProbabilityDistribution(all_outlets.outlet_sales_level);
-        ProbabilityDistribution all_chain = new ProbabilityDistribution(all_outlets.outlet_chain);
-        ProbabilityDistribution all_branch = new ProbabilityDistribution(all_outlets.outlet_branch);
+    /**
+     * Run the sample trials and write their results
+     * @param output file to write the results to, binary if it ends with .bin, otherwise CSV
+     * @param echo whether to print the results to the console too
+     * @param replicates bootstrap replicates for the confidence interval of each trial, 0 for none
+     */
+    private static void doPredictions(OutletGroup all_outlets, String output, boolean echo, int replicates, int[] fractions, long seed) throws IOException {
+        TrialRunner runner = new TrialRunner(sales, seasonal, all_outlets);
+        if (replicates > 0) runner.setBootstrap(new Bootstrap(replicates, Bootstrap.DEFAULT_CONFIDENCE, ForkJoinPool.commonPool()));
+        //Create a sales rule for +100% sales estimate on outlet_branch 2
+        SalesRule sr = new SalesRule(1, 100006, 2);
+        runner.addSalesRule(sr);
         
-        ProbabilityDistribution[] random_sales_prob = new ProbabilityDistribution[randomCount];
-        ProbabilityDistribution[] random_chain_prob = new ProbabilityDistribution[randomCount];
-        ProbabilityDistribution[] random_branch_prob = new ProbabilityDistribution[randomCount];
-        for (int i = 0; i < randomCount; i++) {
-            random_sales_prob[i] = new ProbabilityDistribution(random_groups[i].outlet_sales_level);
-            random_chain_prob[i] = new ProbabilityDistribution(random_groups[i].outlet_chain);
-            random_branch_prob[i] = new ProbabilityDistribution(random_groups[i].outlet_branch);
+        ResultSink file = output.endsWith(".bin") ? new BinaryResultSink(output) : new CsvResultSink(output);
+        ResultSink ordered = echo ? new OrderedResultSink(fractions, randomCount, file, new CsvResultSink(new OutputStreamWriter(System.out), false))
+                : new OrderedResultSink(fractions, randomCount, file);
+        if (echo) System.out.println(CsvResultSink.HEADER);
+        //Run the randomly selected groups of every fraction in parallel. Each result is
+        //written as its trial finishes, in sweep order, on a writer thread of its own
+        try (ResultSink sink = new AsyncResultSink(ordered)) {
+            runner.runTrials(fractions, randomCount, seed, sink);
         }
+    }
     
-        
+    /**
+     * Search for the smallest sample fraction that extrapolates
+     * the total sales within the target error
+     * @param target largest accepted relative error, e.g. 0.05
+     */
+    private static void doSampleSizeSearch(OutletGroup all_outlets, double target, long seed) {
+        TrialRunner runner = new TrialRunner(sales, seasonal, all_outlets);
         //Create a sales rule for +100% sales estimate on outlet_branch 2
-        SalesRule sr = new SalesRule(1, 100006, 2);
+        runner.addSalesRule(new SalesRule(1, 100006, 2));
+        SampleSizeSearch search = new SampleSizeSearch(runner, target);
+        SampleSizeSearch.Evaluation best = search.search(fractions, seed);
+        System.out.println("Full group prediction: "+search.getFullPrediction());
+        for (SampleSizeSearch.Evaluation e : search.getEvaluations()) {
+            System.out.println(e);
+        }
+        if (best == null) System.out.println("No sample size meets the target error "+target);
+        else System.out.println("Smallest sample meeting the target error "+target+": 1/"+best.fraction
+                +" ("+(100.0 / best.fraction)+"% of outlets)");
+    }
+    
+    /**
+     * Run the sample trials for every product in the sales history,
+     * the products in parallel. All products share the outlet data.
+     * Results are written with the product ID as the first column.
+     * @param seed seed for the random sample groups
+     */
+    private static void doProductPredictions(long seed) {
+        OutletGroup all_outlets = new OutletGroup();
+        all_outlets.loadCsv(data_files[0]);
+        HashMap<Integer, ProductData> products = ProductData.loadAll(data_files[1], data_files[2]);
+        Metrics.gaugeHeap("heap.mb.products");
+        System.out.println("Sales history loaded for "+products.size()+" products");
+        if (products.isEmpty()) return;
         
+        ProductForecast pf = new ProductForecast(all_outlets, products);
+        //Create a sales rule for +100% sales estimate on outlet_branch 2
+        pf.addSalesRule(new SalesRule(1, 100006, 2));
+        HashMap<Integer, Double> totals = pf.forecast(15);
+        int[] product_ids = pf.getProductIDs();
+        for (int product : product_ids) {
+            System.out.println("Product "+product+": total sales estimate for week 15: "+totals.get(product));
+        }
         
-        //Random selected samples
-        System.out.println("---Predictions for random selections---");
-        System.out.println("Hellinger Distance for... sales ; chain ; group; average ; Estimated sales ; sample group size%");
-        double pred;
-        for (int i = 0; i < random_groups.length; i++) {
-            //System.out.println("Starting predictions for #"+i+" random group");
-            //System.out.println("Hellinger distance of sales for sample #"+i+ "(random selection): "+all_sales.HellingerDistance(random_sales_prob[i]));
-            //System.out.println("Hellinger distance of chain for sample #"+i+ "(random selection): "+all_chain.HellingerDistance(random_chain_prob[i]));
-            //System.out.println("Bhattacharyya distance of sales for sample #"+i+ "(random selection): "+all_sales.BhattacharyyaDistance(random_sales_prob[i]));
-            sp = new SalesPrediction(sales, seasonal, random_groups[i]);
-            sp.addSalesRule(sr); //Add the given rule 
-            pred = calculatePredictions(sp, all_outlets, all_outlets.outlet_count);
-            //Print out the prediction line to console as csv separated by ";":
-            //Hellinger distance of sales ; sales estimate ; sample size compared to full group (%)
-            String s = all_sales.HellingerDistance(random_sales_prob[i])+";"
-                    +all_chain.HellingerDistance(random_chain_prob[i])+";"
-                    +all_branch.HellingerDistance(random_branch_prob[i])+";"
-                    +(all_sales.HellingerDistance(random_sales_prob[i])+all_chain.HellingerDistance(random_chain_prob[i])+all_branch.HellingerDistance(random_branch_prob[i]) / 3.0)+";"
-                    +pred+";"
-                    +(double)((double)100/(double)fraction);
-            System.out.println(s);
-            try {
-                bw.write(s);
-                bw.newLine();
-            } catch (IOException e) {
-                System.out.println("writing failed");
-            }
+        //Results are written with the product ID first, in product order, while the trials run
+        try (ResultSink sink = new AsyncResultSink(new OrderedResultSink(product_ids, fractions, randomCount,
+                new CsvResultSink("calculations_products.csv", true)))) {
+            pf.runTrials(fractions, randomCount, seed, sink);
+        } catch (IOException e) {
+            System.out.println("writing failed");
         }
     }
     
-    private static double calculatePredictions(SalesPrediction sp, OutletGroup og, int totalOutletCount) {
-        long start_time = System.currentTimeMillis();
-        sp.calculatePredictions(15);
-        long end_time = System.currentTimeMillis();
-        //System.out.println("Predictions calculated in "+(end_time - start_time)+"ms for "+sp.getEstimateCount()+" outlets");
+    static double calculatePredictions(SalesPrediction sp, OutletGroup og, int totalOutletCount) {
+        sp.calculatePredictions(15); //timed in Metrics.PREDICTION
         //System.out.println("Total sales estimated: "+sp.getTotalSalesEstimate() + " (adjusted to total outlets "+ totalOutletCount +" = " + (sp.getTotalSalesEstimate() * (totalOutletCount / sp.getEstimateCount())) + ")" );
         //System.out.println("Avg sales estimated: "+sp.getAvgSalesEstimate());
         //sp.printSalesPerOutletChain(og);
-        return (sp.getTotalSalesEstimate() * (totalOutletCount / sp.getEstimateCount()));
+        return (sp.getTotalSalesEstimate() * ((double)totalOutletCount / sp.getEstimateCount()));
+    }
+    
+    private static DatasetSnapshot loadSnapshot() {
+        if (!DatasetSnapshot.isFresh(snapshot_file, data_files)) return null;
+        try {
+            DatasetSnapshot ds = DatasetSnapshot.read(snapshot_file);
+            if (ds.seasonal_product != product_id) return null;
+            System.out.println("Loaded data from snapshot "+snapshot_file);
+            return ds;
+        } catch (IOException e) {
+            System.out.println("Snapshot could not be read, loading from CSV: "+e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void saveSnapshot(OutletGroup all_outlets) {
+        try {
+            DatasetSnapshot.write(snapshot_file, data_files, all_outlets, sales, seasonal, product_id);
+        } catch (IOException e) {
+            System.out.println("Saving snapshot failed: "+e.getMessage());
+        }
+    }
+    
+    private static OutletGroup loadOutlets() {
+        if (snapshot != null) return snapshot.outlets;
+        OutletGroup all_outlets = new OutletGroup();
+        all_outlets.loadCsv(data_files[0]); //load outlet data from CSV
+        Metrics.gaugeHeap("heap.mb.outlets");
+        return all_outlets;
     }
     
     private static void loadSeasonalData(HashMap<Integer, SeasonalData> seasonal) {
-        SeasonalData.loadSeasonalData(seasonal, product_id, "data/seasonal_data.csv");
+        if (snapshot != null) seasonal.putAll(snapshot.seasonal);
+        else SeasonalData.loadSeasonalData(seasonal, product_id, data_files[2]);
         
         //int outlet = 213770;
         //System.out.println("Weekly data for "+outlet+" : "+Arrays.toString(seasonal.get(outlet).weekly_data));
         
         System.out.println("Weekly seasonal data loaded for "+seasonal.keySet().size()+" outlets");
+        Metrics.gaugeHeap("heap.mb.seasonal");
     }
     
-    private static void loadSales(HashMap<Integer, SalesHistory> sales) {
-        SalesHistory.loadHistory(sales, 1, "data/sales_history.csv");
+    private static SalesHistoryStore loadSales() {
+        SalesHistoryStore sales = (snapshot != null) ? snapshot.sales : SalesHistoryStore.loadHistory(1, data_files[1]);
         /*
-        for (int key : sales.keySet()) {
-            System.out.println(sales.get(key).toString());
+        for (int row = 0; row < sales.getOutletCount(); row++) {
+            System.out.println(sales.getOutletId(row)+" sold: "+sales.getSales(sales.getOutletId(row)));
         }
         */
-        System.out.println("Total outlets in sales history: "+sales.keySet().size());
-        
+        System.out.println("Total outlets in sales history: "+sales.getOutletCount());
+        Metrics.gaugeHeap("heap.mb.sales");
+        return sales;
     }
     
     
@@ -203,12 +267,27 @@ public class KandiSampler {
         Integer[] foo = {15, 15, 15, 12, 52, 3, 4, 123, 24, 5, 4, 3, 1, 1, 1, 1, 1,};
         Integer[] bar = {39, 15, 15, 15, 1, 1, 1, 1, 1};
         ProbabilityDistribution a = new ProbabilityDistribution(foo);
-        System.out.println("Valuecount: "+a.valueCount+" values: " +a.distribution.toString());
+        System.out.println("Valuecount: "+a.valueCount+" values: " +a.toString());
         ProbabilityDistribution b = new ProbabilityDistribution(bar);
-        System.out.println("Valuecount: "+b.valueCount+" values: " +b.distribution.toString());
+        System.out.println("Valuecount: "+b.valueCount+" values: " +b.toString());
         System.out.println(a.HellingerDistance(b));
     }
     
+    public static void testBootstrap() {
+        //Constant estimates must give a zero-width interval at the total
+        double[] estimates = new double[1000];
+        int[] chainOf = new int[estimates.length];
+        for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = 100;
+            chainOf[i] = i % 3;
+        }
+        Bootstrap bootstrap = new Bootstrap(Bootstrap.DEFAULT_REPLICATES, Bootstrap.DEFAULT_CONFIDENCE, ForkJoinPool.commonPool());
+        BootstrapResult result = bootstrap.run(estimates, chainOf, new int[] {1, 2, 3}, 1, 42);
+        System.out.println("Total: "+result.total+" interval: "+result.total_lower+" - "+result.total_upper);
+        if (result.total_lower != result.total || result.total_upper != result.total)
+            System.out.println("Constant estimates gave a non-zero interval");
+    }
+    
     public static void testOutletGroup(OutletGroup og) {
         og.loadCsv("data/outlet_data.csv");
         System.out.println("Outlets: "+og.outlet_count);
@@ -0,0 +1,217 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Latency histograms of the processing stages, counters and gauges,
+ * collected over a run and printed as a summary at the end.
+ * A stage is timed with
+ *     long start = Metrics.start();
+ *     ...
+ *     Metrics.stop(Metrics.SAMPLE, start);
+ * Every timing is also emitted as a kandisampler.Stage JFR event and every
+ * gauge as a kandisampler.Gauge event when a flight recording is running,
+ * e.g. with -XX:StartFlightRecording. Events cost nothing when it is not.
+ * Histograms have a bucket per power of two nanoseconds, so recording is a
+ * few atomic adds with no locking. Collection can be turned off with
+ * -Dkandisampler.metrics=false.
+ * @author nikok
+ */
+public class Metrics {
+    //Stages
+    public static final String LOAD_CSV = "load.csv";
+    public static final String LOAD_SNAPSHOT = "load.snapshot";
+    public static final String SAMPLE = "sample.group";
+    public static final String DISTRIBUTION = "distribution.build";
+    public static final String HELLINGER = "hellinger";
+    public static final String PREDICTION = "prediction";
+    public static final String TRIAL = "trial";
+    public static final String BOOTSTRAP = "bootstrap";
+    //Counters
+    public static final String TRIALS_COMPLETED = "trials.completed";
+    public static final String OUTLETS_SCORED = "outlets.scored";
+    public static final String ROWS_LOADED = "rows.loaded";
+
+    public static volatile boolean enabled = !"false".equals(System.getProperty("kandisampler.metrics"));
+
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Double> gauges = new ConcurrentHashMap<>();
+
+    @Name("kandisampler.Stage")
+    @Label("Stage")
+    @Category("KandiSampler")
+    @Description("Time spent in a processing stage")
+    public static class StageEvent extends Event {
+        @Label("Stage")
+        public String stage;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        public long elapsed;
+    }
+
+    @Name("kandisampler.Gauge")
+    @Label("Gauge")
+    @Category("KandiSampler")
+    @Description("Value of a gauge when it was set")
+    public static class GaugeEvent extends Event {
+        @Label("Gauge")
+        public String gauge;
+        @Label("Value")
+        public double value;
+    }
+
+    /**
+     * Latency histogram with a bucket per power of two nanoseconds
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64); //bucket b: [2^(b-1), 2^b) ns
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return total.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        /**
+         * @param p quantile, e.g. 0.99
+         * @return upper bound of the bucket holding the quantile, in nanoseconds
+         */
+        public long getQuantileNanos(double p) {
+            long n = getCount();
+            if (n == 0) return 0;
+            long rank = (long)Math.ceil(p * n);
+            long seen = 0;
+            for (int b = 0; b < 64; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) return Math.min((b == 0) ? 0 : (1L << b) - 1, getMaxNanos());
+            }
+            return getMaxNanos();
+        }
+    }
+
+    /**
+     * @return start time for stop
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time of a stage since start
+     * @param stage name of the stage
+     * @param start time from start()
+     */
+    public static void stop(String stage, long start) {
+        if (!enabled) return;
+        long elapsed = System.nanoTime() - start;
+        histogram(stage).record(elapsed);
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    public static Histogram histogram(String stage) {
+        Histogram h = histograms.get(stage);
+        return (h != null) ? h : histograms.computeIfAbsent(stage, k -> new Histogram());
+    }
+
+    public static void count(String counter, long amount) {
+        if (!enabled) return;
+        LongAdder c = counters.get(counter);
+        if (c == null) c = counters.computeIfAbsent(counter, k -> new LongAdder());
+        c.add(amount);
+    }
+
+    public static long getCount(String counter) {
+        LongAdder c = counters.get(counter);
+        return (c == null) ? 0 : c.sum();
+    }
+
+    public static void gauge(String gauge, double value) {
+        if (!enabled) return;
+        gauges.put(gauge, value);
+        GaugeEvent event = new GaugeEvent();
+        if (event.isEnabled()) {
+            event.gauge = gauge;
+            event.value = value;
+            event.commit();
+        }
+    }
+
+    /**
+     * Set a gauge to the heap in use, in megabytes
+     * @param gauge name of the gauge, e.g. "heap.after.sales"
+     */
+    public static void gaugeHeap(String gauge) {
+        Runtime rt = Runtime.getRuntime();
+        gauge(gauge, (rt.totalMemory() - rt.freeMemory()) / (1024.0 * 1024.0));
+    }
+
+    public static void reset() {
+        histograms.clear();
+        counters.clear();
+        gauges.clear();
+    }
+
+    /**
+     * Print the stage latencies, counters and gauges
+     */
+    public static void printSummary(PrintStream out) {
+        if (!enabled) return;
+        out.println("---Metrics---");
+        out.println(String.format("%-20s %10s %12s %10s %10s %10s %10s %10s", "stage", "count", "total ms", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            long n = h.getCount();
+            out.println(String.format("%-20s %10d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f", e.getKey(), n,
+                    h.getTotalNanos() / 1e6, (n == 0) ? 0 : h.getTotalNanos() / 1e3 / n,
+                    h.getQuantileNanos(0.5) / 1e3, h.getQuantileNanos(0.9) / 1e3,
+                    h.getQuantileNanos(0.99) / 1e3, h.getMaxNanos() / 1e3));
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            out.println(String.format("%-20s %10d", e.getKey(), e.getValue().sum()));
+        }
+        for (Map.Entry<String, Double> e : new TreeMap<>(gauges).entrySet()) {
+            out.println(String.format("%-20s %10.1f", e.getKey(), e.getValue()));
+        }
+    }
+}
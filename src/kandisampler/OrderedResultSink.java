@@ -0,0 +1,96 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+
+/**
+ * Passes results on to other sinks in the order of the sweep: product,
+ * then fraction, then trial, no matter in which order the trials finish.
+ * A result that comes early waits in a buffer until every result before
+ * it has been passed on. The fractions of the sweep must be distinct.
+ * @author nikok
+ */
+public class OrderedResultSink implements ResultSink {
+    private final ResultSink[] sinks;
+    private final int[] fractions;
+    private final int trialCount;
+    private final OutletIndex products; //product ID -> position in the sweep, null for a single product
+    private final TrialResult[] pending; //position in the sweep -> result waiting for the ones before it
+    private int next; //position of the next result to pass on
+
+    /**
+     * @param fractions fractions of the sweep, in the order they are run
+     * @param trialCount number of trials per fraction
+     * @param sinks sinks to pass the results on to
+     */
+    public OrderedResultSink(int[] fractions, int trialCount, ResultSink... sinks) {
+        this(null, fractions, trialCount, sinks);
+    }
+
+    /**
+     * @param products product IDs of the sweep in the order to write them, or null for a single product
+     * @param fractions fractions of the sweep, in the order they are run
+     * @param trialCount number of trials per fraction
+     * @param sinks sinks to pass the results on to
+     */
+    public OrderedResultSink(int[] products, int[] fractions, int trialCount, ResultSink... sinks) {
+        this.sinks = sinks;
+        this.fractions = fractions;
+        this.trialCount = trialCount;
+        int productCount = 1;
+        if (products == null) {
+            this.products = null;
+        } else {
+            this.products = new OutletIndex(products.length);
+            for (int i = 0; i < products.length; i++) this.products.put(products[i], i);
+            productCount = products.length;
+        }
+        this.pending = new TrialResult[productCount * fractions.length * trialCount];
+    }
+
+    @Override
+    public synchronized void accept(TrialResult result) throws IOException {
+        pending[positionOf(result)] = result;
+        while (next < pending.length && pending[next] != null) {
+            TrialResult r = pending[next];
+            pending[next++] = null;
+            for (ResultSink sink : sinks) sink.accept(r);
+        }
+    }
+
+    private int positionOf(TrialResult r) {
+        int product = 0;
+        if (products != null) {
+            product = products.get(r.product_id);
+            if (product < 0) throw new IllegalArgumentException("Product "+r.product_id+" is not in the sweep");
+        }
+        int fraction = 0;
+        while (fraction < fractions.length && fractions[fraction] != r.fraction) fraction++;
+        if (fraction == fractions.length || r.trial < 0 || r.trial >= trialCount) {
+            throw new IllegalArgumentException("Trial "+r.trial+" of fraction "+r.fraction+" is not in the sweep");
+        }
+        return (product * fractions.length + fraction) * trialCount + r.trial;
+    }
+
+    /**
+     * Pass on whatever is still waiting, in order, e.g. after trials
+     * before it failed, then close the sinks
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (; next < pending.length; next++) {
+                if (pending[next] == null) continue;
+                for (ResultSink sink : sinks) sink.accept(pending[next]);
+                pending[next] = null;
+            }
+        } finally {
+            for (ResultSink sink : sinks) sink.close();
+        }
+    }
+}
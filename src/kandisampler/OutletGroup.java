@@ -6,12 +6,9 @@
  */
 package kandisampler;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * Outlets contain the data of outlets, loaded from CSV
@@ -20,6 +17,9 @@ import java.util.Random;
  * @author nikok
  */
 public class OutletGroup {
+    //Columns of the outlet CSV file, in the order loadCsv reads them
+    public static final String CSV_HEADER = "OUTLET_ID;MAIN_CHAIN_ID;ASS_ASSRTMNT_OTLT_BRNCH_ID;ASSRTMNT_ASSRTMNT_LANGUAGE_ID";
+    
     //Line 0 == empty.
     public int outlet_count; //number of outlets
     public int[] outlet_id;
@@ -28,6 +28,9 @@ public class OutletGroup {
     public int[] outlet_branch;
     public int[] outlet_language;
     public int[] outlet_sales_level;
+    private OutletIndex index; //outlet_id -> row
+    private OutletStrata strata; //built on the first stratified sample
+    private SalesLevelChain chain; //built on the first Markov chain sample
     
     public OutletGroup() {
         outlet_count = 0;
@@ -36,6 +39,7 @@ public class OutletGroup {
         outlet_branch = new int[0];
         outlet_language = new int[0];
         outlet_sales_level = new int[0];
+        index = new OutletIndex();
     }
     
     private void initializeOutlets(int size) {
@@ -45,95 +49,107 @@ public class OutletGroup {
         outlet_language = new int[size];
         outlet_sales_level = new int[size];
         outlet_count = size;
+        index = new OutletIndex(size);
+    }
+    
+    /**
+     * Create a group from existing columns, e.g. from a snapshot.
+     * The columns are used as they are, not copied.
+     */
+    static OutletGroup fromColumns(int[] id, int[] chain, int[] branch, int[] language) {
+        OutletGroup group = new OutletGroup();
+        group.outlet_id = id;
+        group.outlet_chain = chain;
+        group.outlet_branch = branch;
+        group.outlet_language = language;
+        group.outlet_sales_level = new int[id.length];
+        group.outlet_count = id.length;
+        group.reindex();
+        return group;
+    }
+    
+    /**
+     * Copy a single outlet from another group into given row of this group
+     * @param from group to copy from
+     * @param fromRow row of the outlet in the other group
+     * @param toRow row in this group to copy the outlet into
+     */
+    private void copyRow(OutletGroup from, int fromRow, int toRow) {
+        outlet_id[toRow] = from.outlet_id[fromRow];
+        outlet_chain[toRow] = from.outlet_chain[fromRow];
+        outlet_branch[toRow] = from.outlet_branch[fromRow];
+        outlet_language[toRow] = from.outlet_language[fromRow];
+        outlet_sales_level[toRow] = from.outlet_sales_level[fromRow];
+        index.putIfAbsent(outlet_id[toRow], toRow);
+    }
+    
+    /**
+     * Rebuild the outlet ID index. Needed only if outlet_id
+     * is modified directly instead of through the group methods.
+     */
+    public void reindex() {
+        strata = null;
+        chain = null;
+        index = new OutletIndex(outlet_count);
+        for (int i = 0; i < outlet_count; i++) {
+            index.putIfAbsent(outlet_id[i], i);
+        }
     }
     
     public void updateSalesLevels(SalesPrediction sp) {
+        strata = null;
+        chain = null;
         for (int i = 0; i < outlet_id.length; i++) {
             if (sp.getPredictions().containsKey(outlet_id[i])) outlet_sales_level[i] = (int)Math.floor(sp.getPredictions().get(outlet_id[i]));
             else outlet_sales_level[i] = 0;
         }
     }
     
-    private int countLines(String filename) {
-        BufferedReader br = null;
-        String line = "";
-        int lines = 0;
-        try {
-            br = new BufferedReader(new FileReader(filename));
-            while ((line = br.readLine()) != null) {
-                lines++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Number the distinct values of a column densely, in order of first appearance
+     * @param column outlet column to encode, e.g. outlet_chain
+     * @param codes filled with the number of each row's value, at least as long as the column
+     * @return the distinct values, indexed by their number
+     */
+    public static int[] encode(int[] column, int[] codes) {
+        OutletIndex index = new OutletIndex();
+        int[] values = new int[16];
+        int count = 0;
+        for (int row = 0; row < column.length; row++) {
+            int code = index.putIfAbsent(column[row], count);
+            if (code < 0) {
+                code = count++;
+                if (code >= values.length) values = Arrays.copyOf(values, values.length * 2);
+                values[code] = column[row];
             }
+            codes[row] = code;
         }
-        return lines;
+        return Arrays.copyOf(values, count);
     }
     
     public int[] getOutletChains() {
-        ArrayList<Integer> chains = new ArrayList<>();
-        for (int chain_id : this.outlet_chain) {
-            if (!chains.contains(chain_id)) chains.add(chain_id);
-        }
-        int[] ret = new int[chains.size()];
-        for (int i = 0; i < chains.size(); i++) {
-            ret[i] = chains.get(i);
-        }
-        return ret;
+        return encode(this.outlet_chain, new int[this.outlet_chain.length]);
     }
     
     public void loadCsv(String filename) {
-        int lines = countLines(filename);
-        initializeOutlets(lines);
-        BufferedReader br = null;
-        String line = "";
-        String split = ";";
-        int currentLine = 0;
+        //CSV: see CSV_HEADER
+        CsvLoader.Table table;
         try {
-            br = new BufferedReader(new FileReader(filename));
-            while ((line = br.readLine()) != null) {
-                // use comma as separator
-                String[] outlet = line.split(split);
-                addOutlet(outlet, currentLine);
-                currentLine++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            table = CsvLoader.load(filename, new int[]{0, 1, 2, 3}, new int[0], true);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            return;
         }
-
-    }
-    
-    private void addOutlet(String[] outlet, int line) {
-        //CSV: OUTLET_ID;MAIN_CHAIN_ID;ASSRTMNT_ASSRTMNT_LANGUAGE_ID;ASS_ASSRTMNT_OTLT_BRNCH_ID
-        if (line == 0) return;
-        try {
-            outlet_id[line] = Integer.parseInt(outlet[0]);
-            outlet_chain[line] = Integer.parseInt(outlet[1]);
-            outlet_branch[line] = Integer.parseInt(outlet[2]);
-            outlet_language[line] = Integer.parseInt(outlet[3]);
-        } catch (Exception e) {
-            System.out.println("Failed to parse line from CSV: "+outlet.toString());
+        //Line 0 (the header) is kept as an empty row
+        initializeOutlets(table.rows + 1);
+        System.arraycopy(table.ints[0], 0, outlet_id, 1, table.rows);
+        System.arraycopy(table.ints[1], 0, outlet_chain, 1, table.rows);
+        System.arraycopy(table.ints[2], 0, outlet_branch, 1, table.rows);
+        System.arraycopy(table.ints[3], 0, outlet_language, 1, table.rows);
+        for (int i = 1; i < outlet_count; i++) {
+            index.putIfAbsent(outlet_id[i], i);
         }
-        
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from CSV "+filename);
     }
     
     /**
@@ -143,31 +159,43 @@ public class OutletGroup {
      * 2: Every Nth (N=10) outlet
      * 3: Randomly selected outlets
      * 4: Markovian chain selection by sale_level
+     * 5: Stratified by chain, branch and sales level
      * @param method
      * @param fraction how many outlets are included in sample (as 1/fraction of base group)
      * @return 
      */
     public OutletGroup getSampleGroup(int method, int fraction) {
+        return getSampleGroup(method, fraction, new SplittableRandom());
+    }
+    
+    /**
+     * Return a sample of the base group, drawing random selections from
+     * the given random stream. Same stream state gives the same sample.
+     * @param method see getSampleGroup(method, fraction)
+     * @param fraction how many outlets are included in sample (as 1/fraction of base group)
+     * @param rand random stream used by the random methods
+     * @return 
+     */
+    public OutletGroup getSampleGroup(int method, int fraction, SplittableRandom rand) {
+        long start = Metrics.start();
         int fraction_size =  outlet_count/fraction;
         OutletGroup sample = new OutletGroup();
         sample.initializeOutlets(fraction_size);
         switch (method) {
             case 1: copyHead(sample); break;
             case 2: copyEveryNth(sample, fraction); break;
-            case 3: copyRandom(sample);
+            case 3: copyRandom(sample, rand); break;
+            case 4: copyMarkov(sample, rand); break;
+            case 5: copyStratified(sample, rand); break;
             default: 
         }
-        
+        Metrics.stop(Metrics.SAMPLE, start);
         return sample;
     }
     
     private void copyHead(OutletGroup newGroup) {
         for (int i = 0; i < newGroup.outlet_count; i ++) {
-            newGroup.outlet_id[i] = outlet_id[i];
-            newGroup.outlet_chain[i] = outlet_chain[i];
-            newGroup.outlet_branch[i] = outlet_branch[i];
-            newGroup.outlet_language[i] = outlet_language[i];
-            newGroup.outlet_sales_level[i] = outlet_sales_level[i];
+            newGroup.copyRow(this, i, i);
         }
         newGroup.outlet_count = newGroup.outlet_id.length;
     }
@@ -176,32 +204,116 @@ public class OutletGroup {
         for (int i = 0; i < newGroup.outlet_count; i ++) {
             int pointer = i*n;
             //if (pointer > this.outlet_id.length) pointer = this.outlet_id.length-1;
-            newGroup.outlet_id[i] = outlet_id[pointer];
-            newGroup.outlet_chain[i] = outlet_chain[pointer];
-            newGroup.outlet_branch[i] = outlet_branch[pointer];
-            newGroup.outlet_language[i] = outlet_language[pointer];
-            newGroup.outlet_sales_level[i] = outlet_sales_level[pointer];
+            newGroup.copyRow(this, pointer, i);
         }
         newGroup.outlet_count = newGroup.outlet_id.length;
     }
     
-    private void copyRandom(OutletGroup newGroup) {
-        if (newGroup.outlet_count > this.outlet_count) System.out.println("Trying to fill a big group with randoms from smaller one!");
-        Random rand = new Random();
-        int pointer = 0;
-        while (pointer < newGroup.outlet_count) {
-            int rid = rand.nextInt(this.outlet_count);
-            if (newGroup.getPosition(outlet_id[rid]) < 0) {
-                newGroup.outlet_id[pointer] = outlet_id[rid];
-                newGroup.outlet_chain[pointer] = outlet_chain[rid];
-                newGroup.outlet_branch[pointer] = outlet_branch[rid];
-                newGroup.outlet_language[pointer] = outlet_language[rid];
-                newGroup.outlet_sales_level[pointer] = outlet_sales_level[rid];
-                pointer++;
-            }
+    /**
+     * Fill the new group with randomly selected outlets, without replacement.
+     * @param newGroup group to fill
+     * @param rand random stream to draw from
+     */
+    private void copyRandom(OutletGroup newGroup, SplittableRandom rand) {
+        int count = newGroup.outlet_count;
+        if (count > this.outlet_count) {
+            System.out.println("Trying to fill a big group with randoms from smaller one!");
+            count = this.outlet_count;
+        }
+        int[] picked = new int[count];
+        drawWithoutReplacement(this.outlet_count, count, rand, picked, 0);
+        for (int i = 0; i < count; i++) {
+            newGroup.copyRow(this, picked[i], i);
+        }
+        newGroup.outlet_count = newGroup.outlet_id.length;
+    }
+    
+    /**
+     * Fill the new group with a stratified random sample. Every stratum of
+     * chain, branch and sales level (see OutletStrata) gets a share of the
+     * sample proportional to its size, and its outlets are drawn at random.
+     * The shares are rounded systematically: with a random offset u, stratum
+     * s gets floor(n*end/N + u) - floor(n*start/N + u) outlets, where start
+     * and end are its bounds in the stratum ordered rows. This rounds each
+     * share up or down, keeps the expected share exact and always sums to n.
+     * With u = U/N for a random integer U, the quotas are computed in integers
+     * as floor((n*end + U) / N), so the last stratum ends at exactly n.
+     * @param newGroup group to fill
+     * @param rand random stream to draw from
+     */
+    private void copyStratified(OutletGroup newGroup, SplittableRandom rand) {
+        OutletStrata s = getStrata();
+        int n = Math.min(newGroup.outlet_count, this.outlet_count);
+        int[] picked = new int[n];
+        long total = this.outlet_count;
+        long u = rand.nextLong(total); //random offset, times N
+        int pos = 0;
+        long taken = 0; //floor((n*start + U) / N) of the current stratum
+        for (int stratum = 0; stratum < s.stratum_count; stratum++) {
+            long upto = ((long)s.offsets[stratum + 1] * n + u) / total;
+            int quota = (int)(upto - taken);
+            taken = upto;
+            if (quota <= 0) continue;
+            int from = s.offsets[stratum];
+            drawWithoutReplacement(s.size(stratum), quota, rand, picked, pos);
+            for (int i = pos; i < pos + quota; i++) picked[i] = s.rows[from + picked[i]];
+            pos += quota;
+        }
+        if (pos != n) throw new IllegalStateException("Stratified quotas sum to "+pos+" instead of "+n);
+        for (int i = 0; i < pos; i++) {
+            newGroup.copyRow(this, picked[i], i);
+        }
+        newGroup.outlet_count = newGroup.outlet_id.length;
+    }
+    
+    /**
+     * Fill the new group by walking a Markov chain over the sales levels,
+     * see SalesLevelChain
+     * @param newGroup group to fill
+     * @param rand random stream to draw from
+     */
+    private void copyMarkov(OutletGroup newGroup, SplittableRandom rand) {
+        int[] picked = getChain().sample(Math.min(newGroup.outlet_count, this.outlet_count), rand);
+        for (int i = 0; i < picked.length; i++) {
+            newGroup.copyRow(this, picked[i], i);
         }
         newGroup.outlet_count = newGroup.outlet_id.length;
-    }    
+    }
+    
+    private synchronized SalesLevelChain getChain() {
+        if (chain == null) chain = new SalesLevelChain(this);
+        return chain;
+    }
+    
+    private synchronized OutletStrata getStrata() {
+        if (strata == null) strata = new OutletStrata(this);
+        return strata;
+    }
+    
+    /**
+     * Draw count distinct numbers from 0..range-1 in random order.
+     * Uses a partial Fisher-Yates shuffle: only as many positions are
+     * shuffled as there are numbers to draw, and the swapped positions are
+     * kept in a sparse index instead of a full permutation array, so the
+     * work and memory are O(count).
+     * @param range numbers are drawn from 0 to range-1
+     * @param count how many to draw, at most range
+     * @param rand random stream to draw from
+     * @param out array to store the numbers into
+     * @param offset position of the first number in out
+     */
+    static void drawWithoutReplacement(int range, int count, SplittableRandom rand, int[] out, int offset) {
+        OutletIndex swapped = new OutletIndex(count);
+        for (int i = 0; i < count; i++) {
+            int j = i + rand.nextInt(range - i);
+            int picked = swapped.get(j);
+            if (picked < 0) picked = j;
+            int displaced = swapped.get(i);
+            if (displaced < 0) displaced = i;
+            swapped.put(j, displaced);
+            out[offset + i] = picked;
+        }
+    }
     
     public OutletGroup trimByOutletSet(Integer[] outletIDs) {
         System.out.println("Total outlets: "+this.outlet_count+", trimmed target: "+outletIDs.length);
@@ -210,11 +322,7 @@ public class OutletGroup {
         for (int i = 0; i < outletIDs.length; i++) {
             int pos = this.getPosition(outletIDs[i]);
             if (pos >= 0) {
-                newGroup.outlet_id[i] = outlet_id[pos];
-                newGroup.outlet_chain[i] = outlet_chain[pos];
-                newGroup.outlet_branch[i] = outlet_branch[pos];
-                newGroup.outlet_language[i] = outlet_language[pos];
-                newGroup.outlet_sales_level[i] = outlet_sales_level[pos];
+                newGroup.copyRow(this, pos, i);
             }
         }
         newGroup.outlet_count = newGroup.outlet_id.length;
@@ -249,12 +357,9 @@ public class OutletGroup {
     /**
      * Search the OutletGroup for given ID.
      * @param id OutletID to search for
-     * @return True if given OutletID is within this outletGroup
+     * @return Row of the given OutletID within this outletGroup, or -1 if it's not in the group
      */
-    private int getPosition(int id) {
-        for (int i = 0; i < this.outlet_count; i++) {
-            if (this.outlet_id[i] == id) return i;
-        }
-        return -1;
+    public int getPosition(int id) {
+        return index.get(id);
     }
 }
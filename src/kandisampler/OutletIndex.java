@@ -0,0 +1,119 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash index from an int key (usually outlet ID)
+ * to an int value (usually row position). Keys and values are kept
+ * in plain int arrays, so lookups do not box.
+ * Linear probing; the table is kept at most half full.
+ * @author nikok
+ */
+public class OutletIndex {
+    private int[] keys;
+    private int[] values; //stored as value+1, 0 marks an empty slot
+    private int mask;
+    private int size;
+
+    public OutletIndex() {
+        this(16);
+    }
+
+    /**
+     * @param expected number of keys expected, the table is sized to hold them without rehashing
+     */
+    public OutletIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) capacity = capacity << 1;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get the value of given key
+     * @param key key to search for
+     * @return value of the key, or -1 if key is not in the index
+     */
+    public int get(int key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) return values[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) >= 0;
+    }
+
+    /**
+     * Set the value of given key, replacing any old value
+     * @param key key to store
+     * @param value value to store, must not be negative
+     */
+    public void put(int key, int value) {
+        int slot = hash(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value + 1;
+        size++;
+        if (size * 2 > keys.length) rehash();
+    }
+
+    /**
+     * Store the key only if it is not yet in the index
+     * @param key key to store
+     * @param value value to store, must not be negative
+     * @return the existing value of the key, or -1 if the key was added
+     */
+    public int putIfAbsent(int key, int value) {
+        int existing = get(key);
+        if (existing < 0) put(key, value);
+        return existing;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void rehash() {
+        int[] oKeys = keys;
+        int[] oValues = values;
+        keys = new int[oKeys.length * 2];
+        values = new int[oValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oKeys.length; i++) {
+            if (oValues[i] == 0) continue;
+            int slot = hash(oKeys[i]) & mask;
+            while (values[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oKeys[i];
+            values[slot] = oValues[i];
+        }
+    }
+}
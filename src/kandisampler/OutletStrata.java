@@ -0,0 +1,58 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Rows of an outlet group partitioned into strata by chain, branch
+ * and sales level. Sales levels are bucketed by powers of two
+ * (0, 1, 2-3, 4-7, ...), so each stratum holds outlets of the same
+ * chain and branch with roughly the same sales.
+ * The rows of stratum s are rows[offsets[s]] .. rows[offsets[s+1]-1].
+ * @author nikok
+ */
+public class OutletStrata {
+    public final int[] rows; //group rows, ordered by stratum
+    public final int[] offsets; //stratum -> first position in rows, with an extra end offset
+    public final int stratum_count;
+
+    public OutletStrata(OutletGroup group) {
+        int count = group.outlet_count;
+        int[] chain = new int[count];
+        int[] branch = new int[count];
+        int chains = OutletGroup.encode(group.outlet_chain, chain).length;
+        int branches = OutletGroup.encode(group.outlet_branch, branch).length;
+        //Key of each row as chain, branch and level bucket, numbered densely
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            long key = ((long)chain[i] * branches + branch[i]) * 33 + levelBucket(group.outlet_sales_level[i]);
+            keys[i] = (int)key;
+            if (key != keys[i]) throw new IllegalStateException("Too many strata: "+chains+" chains, "+branches+" branches");
+        }
+        int[] stratum = new int[count];
+        stratum_count = OutletGroup.encode(keys, stratum).length;
+
+        //Counting sort of the rows by stratum
+        offsets = new int[stratum_count + 1];
+        for (int i = 0; i < count; i++) offsets[stratum[i] + 1]++;
+        for (int s = 0; s < stratum_count; s++) offsets[s + 1] += offsets[s];
+        int[] next = new int[stratum_count];
+        System.arraycopy(offsets, 0, next, 0, stratum_count);
+        rows = new int[count];
+        for (int i = 0; i < count; i++) rows[next[stratum[i]]++] = i;
+    }
+
+    /**
+     * @return 0 for sales level 0 or less, otherwise 1 + floor(log2(level))
+     */
+    static int levelBucket(int level) {
+        return (level <= 0) ? 0 : 32 - Integer.numberOfLeadingZeros(level);
+    }
+
+    public int size(int stratum) {
+        return offsets[stratum + 1] - offsets[stratum];
+    }
+}
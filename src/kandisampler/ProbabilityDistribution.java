@@ -6,60 +6,82 @@
  */
 package kandisampler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * A simple representation of discrete probability distribution
  * Keys are all stored as integers, probabilities as (integer) occurances,
  * divided by total amount of values when probability is demanded.
+ * Events are kept sorted in a plain int array, with their counts and
+ * square rooted relative frequencies in parallel arrays, so distances
+ * can be calculated by merging two sorted arrays without allocating.
  * @author nikok
  */
-public class ProbabilityDistribution { 
-    
-   public TreeMap<String, Integer> distribution;
+public class ProbabilityDistribution {
+
+   public int[] events; //distinct values, sorted ascending
+   public int[] counts; //occurances of each event
+   public double[] sqrt_frequency; //square root of relative frequency of each event
    public int valueCount;
-   
+
    public ProbabilityDistribution() {
-       this.distribution = new TreeMap<>();
+       this.events = new int[0];
+       this.counts = new int[0];
+       this.sqrt_frequency = new double[0];
        this.valueCount = 0;
    }
-   
-   public ProbabilityDistribution(Object[] values) {
-       this();
-       calculateDistribution(values);
-   }
-   
-   public ProbabilityDistribution(int[] values) {
+
+   public ProbabilityDistribution(Integer[] values) {
        this();
-       Integer[] v = new Integer[values.length];
+       int[] v = new int[values.length];
        for (int i = 0; i < values.length; i++) {
            v[i] = values[i];
        }
        calculateDistribution(v);
    }
-   
-   private void calculateDistribution(Object[] values) {
+
+   public ProbabilityDistribution(int[] values) {
+       this();
+       calculateDistribution(values);
+   }
+
+   private void calculateDistribution(int[] values) {
+       long start = Metrics.start();
        valueCount = values.length;
-       for (int i = 0; i < values.length; i++) {
-           if (distribution.containsKey(values[i].toString())) {
-               distribution.put(values[i].toString(), distribution.get(values[i].toString())+1);
-           } else {
-               distribution.put(values[i].toString(), 1);
+       if (valueCount == 0) return;
+       int[] sorted = Arrays.copyOf(values, values.length);
+       Arrays.sort(sorted);
+       int distinct = 1;
+       for (int i = 1; i < sorted.length; i++) {
+           if (sorted[i] != sorted[i-1]) distinct++;
+       }
+       events = new int[distinct];
+       counts = new int[distinct];
+       sqrt_frequency = new double[distinct];
+       int e = 0;
+       events[0] = sorted[0];
+       for (int i = 0; i < sorted.length; i++) {
+           if (sorted[i] != events[e]) {
+               e++;
+               events[e] = sorted[i];
            }
+           counts[e]++;
+       }
+       for (int i = 0; i < distinct; i++) {
+           sqrt_frequency[i] = Math.sqrt((double)counts[i] / valueCount);
        }
+       Metrics.stop(Metrics.DISTRIBUTION, start);
    }
-   
-   public double relativeFrequency(String event) {
-       if (this.distribution.containsKey(event)) {
-           return ((double)this.distribution.get(event) / this.valueCount);
+
+   public double relativeFrequency(int event) {
+       int i = Arrays.binarySearch(this.events, event);
+       if (i >= 0) {
+           return ((double)this.counts[i] / this.valueCount);
        } else {
            return 0.0;
        }
    }
-   
+
    /**
     * For two discrete probability distributions P = (p1,...pk) and Q = (q1,...,qk),
     * their Hellinger distance is defined as:
@@ -68,29 +90,57 @@ public class ProbabilityDistribution {
     * @return 0 for maximally similiar distributions, 1 for maximally different distributions.
     */
    public double HellingerDistance(ProbabilityDistribution other) {
-       //System.out.println("Calculating Hellinger distance...");
-       Set<String> keys = mergedKeys(this, other);
+       long start = Metrics.start();
+       //Merge the two sorted event arrays; an event missing from one side has p_i or q_i = 0
        double sum = 0.0;
-       for (String key : keys) {
-           sum += Math.pow(Math.sqrt(this.relativeFrequency(key))-Math.sqrt(other.relativeFrequency(key)), 2);
+       int i = 0;
+       int j = 0;
+       while (i < this.events.length && j < other.events.length) {
+           if (this.events[i] == other.events[j]) {
+               double d = this.sqrt_frequency[i] - other.sqrt_frequency[j];
+               sum += d * d;
+               i++;
+               j++;
+           } else if (this.events[i] < other.events[j]) {
+               sum += (double)this.counts[i] / this.valueCount;
+               i++;
+           } else {
+               sum += (double)other.counts[j] / other.valueCount;
+               j++;
+           }
        }
+       for (; i < this.events.length; i++) sum += (double)this.counts[i] / this.valueCount;
+       for (; j < other.events.length; j++) sum += (double)other.counts[j] / other.valueCount;
+       Metrics.stop(Metrics.HELLINGER, start);
        return Math.sqrt(sum) *  ( 1/Math.sqrt(2) );
    }
-   
+
    public double BhattacharyyaDistance(ProbabilityDistribution other) {
-       Set<String> keys = mergedKeys(this, other);
+       //Only events present in both distributions contribute
        double sum = 0.0;
-       for (String key : keys) {
-           sum += Math.sqrt(this.relativeFrequency(key) * other.relativeFrequency(key));
+       int i = 0;
+       int j = 0;
+       while (i < this.events.length && j < other.events.length) {
+           if (this.events[i] == other.events[j]) {
+               sum += this.sqrt_frequency[i] * other.sqrt_frequency[j];
+               i++;
+               j++;
+           } else if (this.events[i] < other.events[j]) {
+               i++;
+           } else {
+               j++;
+           }
        }
        return sum;
    }
-   
-   private static Set<String> mergedKeys(ProbabilityDistribution a, ProbabilityDistribution b) {
-       Set<String> allKeys = new HashSet<>();
-       allKeys.addAll(a.distribution.keySet());
-       allKeys.addAll(b.distribution.keySet());
-       
-       return allKeys;
+
+   @Override
+   public String toString() {
+       StringBuilder sb = new StringBuilder("{");
+       for (int i = 0; i < events.length; i++) {
+           if (i > 0) sb.append(", ");
+           sb.append(events[i]).append('=').append(counts[i]);
+       }
+       return sb.append('}').toString();
    }
 }
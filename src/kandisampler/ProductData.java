@@ -0,0 +1,145 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Sales history and seasonal data of a single product.
+ * loadAll reads the sales history and seasonal files once each
+ * and partitions them by product.
+ * @author nikok
+ */
+public class ProductData {
+    public final int product_id;
+    public SalesHistoryStore sales;
+    public HashMap<Integer, SeasonalData> seasonal;
+
+    public ProductData(int product_id) {
+        this.product_id = product_id;
+        this.seasonal = new HashMap<>();
+    }
+
+    //Field of the sales history holding the product ID, the "?" field of SalesHistory.loadHistory.
+    //DatasetGenerator writes the product ID there.
+    public static final int PRODUCT_COLUMN = 0;
+
+    /**
+     * Load the data of every product in the sales history,
+     * with the product ID in field PRODUCT_COLUMN of the sales history.
+     * @param salesFile path to the sales history CSV
+     * @param seasonalFile path to the seasonal data CSV
+     * @return data per product ID, empty if the sales and seasonal products don't match
+     */
+    public static HashMap<Integer, ProductData> loadAll(String salesFile, String seasonalFile) {
+        return loadAll(salesFile, PRODUCT_COLUMN, seasonalFile);
+    }
+
+    /**
+     * Load the data of every product in the sales history.
+     * Products without seasonal data get an empty seasonal map. If none of
+     * the products are found in the seasonal data, the product column is
+     * taken to be wrong and nothing is returned.
+     * @param salesFile path to the sales history CSV
+     * @param productColumn field of the sales history holding the product ID,
+     * 0 or past the RETURNED field
+     * @param seasonalFile path to the seasonal data CSV
+     * @return data per product ID, empty if the sales and seasonal products don't match
+     */
+    public static HashMap<Integer, ProductData> loadAll(String salesFile, int productColumn, String seasonalFile) {
+        if (productColumn != 0 && productColumn < 5)
+            throw new IllegalArgumentException("Product column "+productColumn+" is one of the sales history fields");
+        HashMap<Integer, ProductData> products = new HashMap<>();
+        loadSales(products, salesFile, productColumn);
+        int matched = loadSeasonal(products, seasonalFile);
+        if (matched == 0 && !products.isEmpty()) {
+            System.out.println("None of the "+products.size()+" products in field "+productColumn+" of "+salesFile
+                    +" have seasonal data in "+seasonalFile+", check the product column");
+            products.clear();
+        } else if (matched < products.size()) {
+            System.out.println((products.size() - matched)+" of "+products.size()+" products have no seasonal data");
+        }
+        return products;
+    }
+
+    private static void loadSales(HashMap<Integer, ProductData> products, String filename, int productColumn) {
+        //CSV: ?;ISSUE;OUTLET_ID;DELIVERED;RETURNED with the product ID in productColumn
+        CsvLoader.Table table;
+        try {
+            table = CsvLoader.load(filename, new int[]{productColumn, 1, 2, 3, 4}, new int[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        int[] product = table.ints[0];
+
+        //Number the products and count their rows
+        int[] codes = new int[table.rows];
+        int[] ids = OutletGroup.encode(product, codes);
+        int[] offsets = new int[ids.length + 1];
+        for (int i = 0; i < table.rows; i++) offsets[codes[i] + 1]++;
+        for (int p = 0; p < ids.length; p++) offsets[p + 1] += offsets[p];
+
+        //Partition the columns by product, keeping the row order within a product
+        int[] next = new int[ids.length];
+        System.arraycopy(offsets, 0, next, 0, ids.length);
+        int[][] columns = new int[4][table.rows];
+        for (int i = 0; i < table.rows; i++) {
+            int pos = next[codes[i]]++;
+            for (int c = 0; c < 4; c++) columns[c][pos] = table.ints[c + 1][i];
+        }
+        for (int p = 0; p < ids.length; p++) {
+            int from = offsets[p];
+            int count = offsets[p + 1] - from;
+            ProductData data = new ProductData(ids[p]);
+            data.sales = new SalesHistoryStore(ids[p], count,
+                    slice(columns[1], from, count), slice(columns[0], from, count),
+                    slice(columns[2], from, count), slice(columns[3], from, count));
+            products.put(ids[p], data);
+        }
+    }
+
+    private static int[] slice(int[] column, int from, int count) {
+        int[] part = new int[count];
+        System.arraycopy(column, from, part, 0, count);
+        return part;
+    }
+
+    /**
+     * @return number of products that got seasonal data
+     */
+    private static int loadSeasonal(HashMap<Integer, ProductData> products, String filename) {
+        //CSV: ?;OUTLET_ID;PRODUCT_ID;WEEK;MULTIPLIER
+        CsvLoader.Table table;
+        try {
+            table = CsvLoader.load(filename, new int[]{1, 2, 3}, new int[]{4});
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        int[] outlet = table.ints[0];
+        int[] product = table.ints[1];
+        int[] week = table.ints[2];
+        double[] multi = table.doubles[0];
+        int matched = 0;
+        for (int i = 0; i < table.rows; i++) {
+            ProductData data = products.get(product[i]);
+            if (data == null) continue;
+            if (data.seasonal.isEmpty()) matched++;
+            SeasonalData sd = data.seasonal.get(outlet[i]);
+            if (sd == null) {
+                sd = new SeasonalData(product[i], outlet[i]);
+                data.seasonal.put(outlet[i], sd);
+            }
+            if (week[i] > 0 && week[i] <= 52 ) sd.weekly_data[week[i]] = multi[i];
+        }
+        return matched;
+    }
+}
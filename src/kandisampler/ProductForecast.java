@@ -0,0 +1,161 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Forecasts and sample trial sweeps for many products in parallel.
+ * Every product shares the same outlet metadata; only the sales history,
+ * seasonal data and the resulting sales levels differ per product.
+ * @author nikok
+ */
+public class ProductForecast {
+    private final OutletGroup outlets;
+    private final HashMap<Integer, ProductData> products;
+    private final ArrayList<SalesRule> sales_rules;
+    private final ForkJoinPool pool;
+
+    public ProductForecast(OutletGroup outlets, HashMap<Integer, ProductData> products) {
+        this(outlets, products, ForkJoinPool.commonPool());
+    }
+
+    public ProductForecast(OutletGroup outlets, HashMap<Integer, ProductData> products, ForkJoinPool pool) {
+        this.outlets = outlets;
+        this.products = products;
+        this.sales_rules = new ArrayList<>();
+        this.pool = pool;
+    }
+
+    public void addSalesRule(SalesRule rule) {
+        this.sales_rules.add(rule);
+    }
+
+    /**
+     * @return product IDs in ascending order
+     */
+    public int[] getProductIDs() {
+        int[] ids = new int[products.size()];
+        int i = 0;
+        for (int id : products.keySet()) ids[i++] = id;
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Total sales estimate of every product for given week
+     * @param week week number, 1-52, or 0 for no seasonal variation
+     * @return total estimate per product ID
+     */
+    public HashMap<Integer, Double> forecast(final int week) {
+        int[] ids = getProductIDs();
+        ArrayList<Future<Double>> futures = new ArrayList<>();
+        for (final int id : ids) {
+            futures.add(pool.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    ProductData product = products.get(id);
+                    SalesPrediction sp = new SalesPrediction(product.sales, product.seasonal, outlets);
+                    for (SalesRule rule : sales_rules) sp.addSalesRule(rule);
+                    sp.calculatePredictions(week);
+                    return sp.getTotalSalesEstimate();
+                }
+            }));
+        }
+        HashMap<Integer, Double> totals = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            totals.put(ids[i], join(futures.get(i)));
+        }
+        return totals;
+    }
+
+    /**
+     * Run the sample trial sweep of KandiSampler for every product.
+     * Each product gets its own random stream split from the seed in
+     * product ID order, so results are reproducible.
+     * @param fractions sample sizes to try (as 1/fraction of base group)
+     * @param trialCount number of trials per fraction
+     * @param seed seed of the random streams
+     * @return trial results per product ID, ordered as in TrialRunner.runTrials
+     */
+    public HashMap<Integer, TrialResult[]> runTrials(int[] fractions, int trialCount, long seed) {
+        return sweep(fractions, trialCount, seed, null);
+    }
+
+    /**
+     * Run the sweeps as in runTrials(fractions, trialCount, seed), handing
+     * each result to the sink as soon as its trial finishes, see
+     * TrialRunner.runTrials. Every result carries its product ID.
+     * @param sink receiver of the results of every product, must be thread safe
+     * @throws IOException if the sink fails
+     */
+    public HashMap<Integer, TrialResult[]> runTrials(int[] fractions, int trialCount, long seed, ResultSink sink) throws IOException {
+        try {
+            return sweep(fractions, trialCount, seed, sink);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private HashMap<Integer, TrialResult[]> sweep(final int[] fractions, final int trialCount, long seed, final ResultSink sink) {
+        int[] ids = getProductIDs();
+        SplittableRandom root = new SplittableRandom(seed);
+        ArrayList<Future<TrialResult[]>> futures = new ArrayList<>();
+        for (final int id : ids) {
+            final long productSeed = root.split().nextLong();
+            futures.add(pool.submit(new Callable<TrialResult[]>() {
+                @Override
+                public TrialResult[] call() throws IOException {
+                    ProductData product = products.get(id);
+                    TrialRunner runner = new TrialRunner(product.sales, product.seasonal, prepareOutlets(product), pool);
+                    runner.setProductId(id);
+                    for (SalesRule rule : sales_rules) runner.addSalesRule(rule);
+                    if (sink == null) return runner.runTrials(fractions, trialCount, productSeed);
+                    return runner.runTrials(fractions, trialCount, productSeed, sink);
+                }
+            }));
+        }
+        HashMap<Integer, TrialResult[]> results = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            results.put(ids[i], join(futures.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * The outlets with sales history of the product, with their
+     * sales levels set from the product's base predictions.
+     */
+    public OutletGroup prepareOutlets(ProductData product) {
+        SalesPrediction sp = new SalesPrediction(product.sales, product.seasonal, outlets);
+        sp.calculatePredictions(0);
+        OutletGroup group = outlets.trimByOutletSet(sp.getOutletIDs());
+        group.updateSalesLevels(sp);
+        return group;
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for product results", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw new UncheckedIOException((IOException)e.getCause());
+            throw new IllegalStateException("Product calculation failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Arrays;
+
+/**
+ * A fixed probability distribution that many samples are compared against,
+ * such as the distribution of the whole outlet group.
+ * The events of the reference form a fixed dictionary, and the square rooted
+ * frequencies of the reference are calculated once over it. Samples are
+ * counted straight into the same dictionary, so a distance is a single
+ * loop over the dictionary arrays. Sample values outside the dictionary
+ * only add to a single "outside" count.
+ * @author nikok
+ */
+public class ReferenceDistribution {
+    private static final int MAX_DENSE_SPAN = 1 << 16;
+
+    private final int[] events; //the dictionary, sorted ascending
+    private final double[] sqrt_frequency;
+    private final int min_event;
+    private final int[] slots; //event - min_event -> dictionary slot, or null if events are too sparse
+    private final ThreadLocal<int[]> scratch; //per thread sample counts over the dictionary
+
+    public ReferenceDistribution(int[] values) {
+        this(new ProbabilityDistribution(values));
+    }
+
+    public ReferenceDistribution(ProbabilityDistribution reference) {
+        this.events = reference.events.clone();
+        this.sqrt_frequency = reference.sqrt_frequency.clone();
+        final int size = events.length;
+        if (size > 0 && (long)events[size-1] - events[0] < MAX_DENSE_SPAN) {
+            this.min_event = events[0];
+            this.slots = new int[events[size-1] - events[0] + 1];
+            Arrays.fill(slots, -1);
+            for (int i = 0; i < size; i++) {
+                slots[events[i] - min_event] = i;
+            }
+        } else {
+            this.min_event = 0;
+            this.slots = null;
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new int[size]);
+    }
+
+    public int size() {
+        return events.length;
+    }
+
+    private int slot(int event) {
+        if (slots != null) {
+            long offset = (long)event - min_event;
+            if (offset < 0 || offset >= slots.length) return -1;
+            return slots[(int)offset];
+        }
+        int i = Arrays.binarySearch(events, event);
+        return (i >= 0) ? i : -1;
+    }
+
+    /**
+     * Count the sample values into the dictionary of this distribution
+     * @param values sample values
+     * @param counts array of dictionary size to add the counts into
+     * @return number of values not in the dictionary
+     */
+    public int project(int[] values, int[] counts) {
+        int outside = 0;
+        for (int i = 0; i < values.length; i++) {
+            int s = slot(values[i]);
+            if (s >= 0) counts[s]++;
+            else outside++;
+        }
+        return outside;
+    }
+
+    /**
+     * Hellinger distance of the reference to the distribution of given sample values.
+     * @param values sample values
+     * @return 0 for maximally similiar distributions, 1 for maximally different distributions.
+     */
+    public double HellingerDistance(int[] values) {
+        long start = Metrics.start();
+        int[] counts = scratch.get();
+        int outside = project(values, counts);
+        double scale = (values.length > 0) ? 1.0 / values.length : 0.0;
+        //Events outside the dictionary have p_i = 0, so they add up to their share of the sample
+        double sum = outside * scale + sum(counts, scale);
+        Metrics.stop(Metrics.HELLINGER, start);
+        return Math.sqrt(sum) * (1/Math.sqrt(2));
+    }
+
+    /**
+     * Hellinger distances of the reference to a batch of samples.
+     * @param samples values of each sample
+     * @return distance of each sample, in the same order
+     */
+    public double[] HellingerDistances(int[][] samples) {
+        double[] distances = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            distances[i] = HellingerDistance(samples[i]);
+        }
+        return distances;
+    }
+
+    /**
+     * Sum of (sqrt(p_i) - sqrt(q_i))^2 over the dictionary, clearing the counts as it goes
+     * @param counts sample counts over the dictionary
+     * @param scale one per sample size, turning counts to relative frequencies
+     */
+    private double sum(int[] counts, double scale) {
+        double sum = 0.0;
+        for (int i = 0; i < counts.length; i++) {
+            double d = sqrt_frequency[i] - Math.sqrt(counts[i] * scale);
+            sum += d * d;
+            counts[i] = 0;
+        }
+        return sum;
+    }
+}
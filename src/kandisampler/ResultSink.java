@@ -0,0 +1,27 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+
+/**
+ * Receiver of trial results, e.g. a file writer.
+ * @author nikok
+ */
+public interface ResultSink extends AutoCloseable {
+    /**
+     * @param result result of a finished trial
+     * @throws IOException if the result cannot be written
+     */
+    void accept(TrialResult result) throws IOException;
+
+    /**
+     * Write out everything accepted so far and release the output
+     */
+    @Override
+    void close() throws IOException;
+}
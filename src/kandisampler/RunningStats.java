@@ -0,0 +1,45 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Running mean and variance of a stream of values, updated one value
+ * at a time with Welford's algorithm. Numerically stable, and needs
+ * no memory of the values.
+ * @author nikok
+ */
+public class RunningStats {
+    private long count;
+    private double mean;
+    private double m2; //sum of squared differences from the mean
+
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return sample variance, 0 with less than two values
+     */
+    public double getVariance() {
+        return (count < 2) ? 0 : m2 / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+}
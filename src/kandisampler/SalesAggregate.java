@@ -0,0 +1,266 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Sums, counts and means of a value per outlet, grouped by chain,
+ * branch and language and every combination of them, computed in
+ * one pass over the outlet columns.
+ * A grouping is a bit mask of the dimensions, e.g. CHAIN | BRANCH;
+ * 0 is the grand total. The values of each dimension are numbered
+ * densely, and each grouping keeps its cells in a flat array indexed by
+ * the numbers of its dimensions. A grouping with more cells than
+ * MAX_CELLS numbers only the combinations that occur instead, of which
+ * there are at most as many as rows. The cell of every row is worked out
+ * once per grouping, so summing is a plain array update per grouping.
+ * Large groups are split into at most one part per worker, each summed
+ * into an accumulator of its own and merged. The number of parts is
+ * limited by the size of the accumulators, and a group with many cells
+ * is summed in a single part.
+ * @author nikok
+ */
+public class SalesAggregate {
+    public static final int CHAIN = 1;
+    public static final int BRANCH = 2;
+    public static final int LANGUAGE = 4;
+    public static final int GROUPINGS = 8; //all combinations of the dimensions
+
+    private static final int PARALLEL_THRESHOLD = 1 << 16; //fewest rows per part
+    private static final int MAX_CELLS = 1 << 24; //larger groupings number only the cells that occur
+    private static final long PART_CELLS = 1 << 22; //cells of all the parts together
+
+    private final int[][] values = new int[3][]; //dimension -> distinct values
+    private final OutletIndex[] codes = new OutletIndex[3]; //dimension -> value -> number
+    private final int[][] rowCells = new int[GROUPINGS][]; //grouping -> row -> cell, null for the grand total
+    private final int[] cellCounts = new int[GROUPINGS]; //grouping -> number of cells
+    private final ArrayList<HashMap<Long, Integer>> occurring; //grouping -> cell key -> cell, null for dense groupings
+    private final double[][] sums; //grouping -> cell -> sum
+    private final long[][] counts; //grouping -> cell -> count
+
+    /**
+     * @param group outlets to group
+     * @param outletValues value of each row of the group, NaN for rows to leave out
+     */
+    public SalesAggregate(OutletGroup group, double[] outletValues) {
+        this(group, outletValues, ForkJoinPool.commonPool());
+    }
+
+    public SalesAggregate(OutletGroup group, double[] outletValues, ForkJoinPool pool) {
+        int rows = outletValues.length;
+        int[][] columns = {group.outlet_chain, group.outlet_branch, group.outlet_language};
+        cellCounts[0] = 1;
+        for (int d = 0; d < 3; d++) {
+            int[] rowCodes = new int[rows];
+            int[] column = (columns[d].length == rows) ? columns[d] : Arrays.copyOf(columns[d], rows);
+            values[d] = OutletGroup.encode(column, rowCodes);
+            codes[d] = new OutletIndex(values[d].length);
+            for (int i = 0; i < values[d].length; i++) codes[d].put(values[d][i], i);
+            rowCells[1 << d] = rowCodes;
+            cellCounts[1 << d] = values[d].length;
+        }
+        occurring = new ArrayList<>(Collections.<HashMap<Long, Integer>>nCopies(GROUPINGS, null));
+        long totalCells = 1 + cellCounts[CHAIN] + cellCounts[BRANCH] + cellCounts[LANGUAGE];
+        for (int g = 1; g < GROUPINGS; g++) {
+            if (Integer.bitCount(g) < 2) continue;
+            numberCells(g, rows);
+            totalCells += cellCounts[g];
+        }
+
+        //One part per worker at most, and never more than the accumulators fit in PART_CELLS.
+        //Merging a part costs as much as summing its cells' worth of rows, so parts are kept larger than that.
+        long parts = Math.min(pool.getParallelism(), rows / Math.max(PARALLEL_THRESHOLD, totalCells));
+        parts = Math.min(parts, PART_CELLS / totalCells);
+        Part total;
+        if (parts <= 1) {
+            total = new Part();
+            total.add(outletValues, 0, rows);
+        } else {
+            int partRows = (int)((rows + parts - 1) / parts);
+            total = pool.invoke(new PartTask(outletValues, 0, rows, partRows));
+        }
+        sums = total.sums;
+        counts = total.counts;
+    }
+
+    /**
+     * Work out the cell of every row in a grouping of two or more dimensions.
+     * The key of a cell is the cell of the grouping without its lowest
+     * dimension, times the values of that dimension, plus the number of
+     * its value. Dense groupings use the key as the cell; others number
+     * the keys in order of first appearance.
+     */
+    private void numberCells(int grouping, int rows) {
+        int low = Integer.lowestOneBit(grouping);
+        int rest = grouping & ~low;
+        int[] restCells = rowCells[rest];
+        int[] lowCodes = rowCells[low];
+        long width = cellCounts[low];
+        int[] cells = new int[rows];
+        if (cellCounts[rest] * width <= MAX_CELLS) {
+            for (int row = 0; row < rows; row++) cells[row] = (int)(restCells[row] * width + lowCodes[row]);
+            cellCounts[grouping] = (int)(cellCounts[rest] * width);
+        } else {
+            HashMap<Long, Integer> index = new HashMap<>();
+            for (int row = 0; row < rows; row++) {
+                Long key = restCells[row] * width + lowCodes[row];
+                Integer cell = index.get(key);
+                if (cell == null) {
+                    cell = index.size();
+                    index.put(key, cell);
+                }
+                cells[row] = cell;
+            }
+            occurring.set(grouping, index);
+            cellCounts[grouping] = index.size();
+        }
+        rowCells[grouping] = cells;
+    }
+
+    /**
+     * Value totals of a range of rows, for every grouping
+     */
+    private class Part {
+        final double[][] sums = new double[GROUPINGS][];
+        final long[][] counts = new long[GROUPINGS][];
+
+        Part() {
+            for (int g = 0; g < GROUPINGS; g++) {
+                sums[g] = new double[cellCounts[g]];
+                counts[g] = new long[cellCounts[g]];
+            }
+        }
+
+        void add(double[] outletValues, int start, int end) {
+            for (int g = 0; g < GROUPINGS; g++) {
+                double[] groupSums = sums[g];
+                long[] groupCounts = counts[g];
+                int[] cells = rowCells[g];
+                for (int row = start; row < end; row++) {
+                    double v = outletValues[row];
+                    if (Double.isNaN(v)) continue;
+                    int cell = (cells == null) ? 0 : cells[row];
+                    groupSums[cell] += v;
+                    groupCounts[cell]++;
+                }
+            }
+        }
+
+        void merge(Part other) {
+            for (int g = 0; g < GROUPINGS; g++) {
+                for (int i = 0; i < sums[g].length; i++) {
+                    sums[g][i] += other.sums[g][i];
+                    counts[g][i] += other.counts[g][i];
+                }
+            }
+        }
+    }
+
+    private class PartTask extends RecursiveTask<Part> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] outletValues;
+        private final int start;
+        private final int end;
+        private final int partRows; //rows summed into one accumulator
+
+        PartTask(double[] outletValues, int start, int end, int partRows) {
+            this.outletValues = outletValues;
+            this.start = start;
+            this.end = end;
+            this.partRows = partRows;
+        }
+
+        @Override
+        protected Part compute() {
+            if (end - start <= partRows) {
+                Part part = new Part();
+                part.add(outletValues, start, end);
+                return part;
+            }
+            //Split at a multiple of partRows, so there are as many leaves as parts
+            int middle = start + ((end - start) / partRows / 2) * partRows;
+            if (middle == start) middle = start + partRows;
+            PartTask right = new PartTask(outletValues, middle, end, partRows);
+            right.fork();
+            Part part = new PartTask(outletValues, start, middle, partRows).compute();
+            part.merge(right.join());
+            return part;
+        }
+    }
+
+    /**
+     * Cell of the given dimension values in a grouping; values of
+     * dimensions not in the grouping are ignored.
+     * @return the cell, or -1 if a value does not occur
+     */
+    private int cell(int grouping, int chain, int branch, int language) {
+        if (grouping == 0) return 0;
+        int low = Integer.lowestOneBit(grouping);
+        int d = Integer.numberOfTrailingZeros(low);
+        int code = codes[d].get((d == 0) ? chain : (d == 1) ? branch : language);
+        if (code < 0) return -1;
+        int rest = grouping & ~low;
+        if (rest == 0) return code;
+        int restCell = cell(rest, chain, branch, language);
+        if (restCell < 0) return -1;
+        long key = restCell * (long)cellCounts[low] + code;
+        HashMap<Long, Integer> index = occurring.get(grouping);
+        if (index == null) return (int)key;
+        Integer cell = index.get(key);
+        return (cell == null) ? -1 : cell;
+    }
+
+    /**
+     * Distinct values of a dimension, in order of first appearance
+     * @param dimension CHAIN, BRANCH or LANGUAGE
+     */
+    public int[] getValues(int dimension) {
+        return values[Integer.numberOfTrailingZeros(dimension)].clone();
+    }
+
+    /**
+     * Sum of the values of the outlets in a cell, e.g.
+     * getSum(CHAIN | BRANCH, 100004, 2, 0) for the outlets of chain
+     * 100004 and branch 2. Values of dimensions not in the grouping are ignored.
+     * @param grouping dimensions to group by
+     */
+    public double getSum(int grouping, int chain, int branch, int language) {
+        int cell = cell(grouping, chain, branch, language);
+        return (cell < 0) ? 0 : sums[grouping][cell];
+    }
+
+    /**
+     * Number of outlets with a value in a cell, see getSum
+     */
+    public long getCount(int grouping, int chain, int branch, int language) {
+        int cell = cell(grouping, chain, branch, language);
+        return (cell < 0) ? 0 : counts[grouping][cell];
+    }
+
+    /**
+     * Mean of the values in a cell, NaN if it has no outlets, see getSum
+     */
+    public double getMean(int grouping, int chain, int branch, int language) {
+        long count = getCount(grouping, chain, branch, language);
+        return (count == 0) ? Double.NaN : getSum(grouping, chain, branch, language) / count;
+    }
+
+    public double getTotal() {
+        return sums[0][0];
+    }
+
+    public long getTotalCount() {
+        return counts[0][0];
+    }
+}
@@ -6,16 +6,15 @@
  */
 package kandisampler;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 
 /**
  * SalesHistory is the sales history of
- * of a single outlet and a single product
+ * of a single outlet and a single product.
+ * Sales can be added while other threads read the history: the
+ * arrays are read and written only under the object's lock.
  * @author nikok
  */
 public class SalesHistory {
@@ -27,6 +26,11 @@ public class SalesHistory {
     private int[] issue;
     private int[] delivered;
     private int[] returned;
+    
+    //Weighted base estimate, kept up to date by addSale, see getWeightedEstimate
+    private double weighted_sum; //sum of sold copies times their weights
+    private double weight_sum; //sum of the weights
+    private volatile double weighted_estimate = Double.NaN;
 
     public SalesHistory(int outlet, int product) {
     	this.outlet_id = outlet;
@@ -39,7 +43,7 @@ public class SalesHistory {
     }
 
 
-    public int[] getSales() {
+    public synchronized int[] getSales() {
     	int[] sales = new int[issue_pointer];
     	for (int i = 0; i < sales.length;i++) {
     		sales[i] = delivered[i] - returned[i];
@@ -48,7 +52,45 @@ public class SalesHistory {
     }
 
 
-    public void addSale(int issueNumber, int delivery_amount, int return_amount) {
+    public synchronized int getIssueCount() {
+    	return issue_pointer;
+    }
+
+
+    /**
+     * Copy the history into the given columns
+     * @param issues column for issue numbers
+     * @param delivery_amounts column for delivered amounts
+     * @param return_amounts column for returned amounts
+     * @param pos position of the first issue in the columns
+     * @return position after the last copied issue
+     */
+    public synchronized int copyTo(int[] issues, int[] delivery_amounts, int[] return_amounts, int pos) {
+    	System.arraycopy(issue, 0, issues, pos, issue_pointer);
+    	System.arraycopy(delivered, 0, delivery_amounts, pos, issue_pointer);
+    	System.arraycopy(returned, 0, return_amounts, pos, issue_pointer);
+    	return pos + issue_pointer;
+    }
+
+
+    /**
+     * Weighted estimate of the sales, see WeightedEstimate.
+     * Maintained by addSale and setReturned, so reading it costs nothing.
+     * @return weighted base estimate of the sales of this outlet, NaN if there are no sales
+     */
+    public double getWeightedEstimate() {
+    	return weighted_estimate;
+    }
+
+
+    /**
+     * Add the sales of the next issue, issues coming oldest first.
+     * Every weight decays by the same factor when a new issue comes in,
+     * so the weighted sums are updated in O(1):
+     * sum = (sum + sold) * DECAY, weights = (weights + 1) * DECAY.
+     * The new estimate is visible to predictions immediately.
+     */
+    public synchronized void addSale(int issueNumber, int delivery_amount, int return_amount) {
     	if (issue_pointer >= issue.length) expand();
 
     	this.issue[issue_pointer] = issueNumber;
@@ -56,6 +98,30 @@ public class SalesHistory {
     	this.returned[issue_pointer] = return_amount;
 
     	issue_pointer++;
+    	weighted_sum = (weighted_sum + delivery_amount - return_amount) * WeightedEstimate.DECAY;
+    	weight_sum = (weight_sum + 1) * WeightedEstimate.DECAY;
+    	weighted_estimate = weighted_sum / weight_sum;
+    }
+
+
+    /**
+     * Correct the returns of an issue already in the history, e.g. when
+     * returns come in after the issue was added. The issue is searched
+     * from the latest backwards, so correcting a recent issue is O(1).
+     * @param issueNumber issue to correct
+     * @param return_amount returned copies of the issue
+     * @return false if the issue is not in the history
+     */
+    public synchronized boolean setReturned(int issueNumber, int return_amount) {
+    	for (int i = issue_pointer - 1; i >= 0; i--) {
+    		if (issue[i] != issueNumber) continue;
+    		//Issue i is issue_pointer-1-i steps before the latest one
+    		weighted_sum -= (return_amount - returned[i]) * WeightedEstimate.weight(issue_pointer - 1 - i);
+    		returned[i] = return_amount;
+    		weighted_estimate = weighted_sum / weight_sum;
+    		return true;
+    	}
+    	return false;
     }
 
     /**
@@ -83,43 +149,27 @@ public class SalesHistory {
     }
 
     public static void loadHistory(HashMap<Integer, SalesHistory> sales, int product_id, String filename) {
-        BufferedReader br = null;
-        String line = "";
-        String split = ";";
+        //CSV: ?;ISSUE;OUTLET_ID;DELIVERED;RETURNED, "?" is the product ID in files of many products (ProductData)
+        CsvLoader.Table table;
         try {
-            br = new BufferedReader(new FileReader(filename));
-            try {
-                while ((line = br.readLine()) != null) {
-                    // use comma as separator
-                    String[] data = line.split(split);
-                    int issue = Integer.parseInt(data[1]);
-                    int outlet_id = Integer.parseInt(data[2]);
-                    int delivered = Integer.parseInt(data[3]);
-                    int returned = Integer.parseInt(data[4]);
-
-                    if (!sales.containsKey(outlet_id)) sales.put(outlet_id, new SalesHistory(outlet_id, product_id));
-
-                    sales.get(outlet_id).addSale(issue, delivered, returned);
-
-                }
-            } catch (Exception e) {
-                System.out.println("Failed to parse line: "+e);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            table = CsvLoader.load(filename, new int[]{1, 2, 3, 4}, new int[0]);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            return;
+        }
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        int[] issue = table.ints[0];
+        int[] outlet = table.ints[1];
+        int[] delivered = table.ints[2];
+        int[] returned = table.ints[3];
+        for (int i = 0; i < table.rows; i++) {
+            SalesHistory history = sales.get(outlet[i]);
+            if (history == null) {
+                history = new SalesHistory(outlet[i], product_id);
+                sales.put(outlet[i], history);
             }
+            history.addSale(issue[i], delivered[i], returned[i]);
         }
-        
-        
     }
     
     @Override
@@ -0,0 +1,339 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sales history of all outlets for a single product, stored in columns.
+ * Each outlet has a row, and the issues of row r are found in the issue
+ * columns between offsets[r] and offsets[r+1], oldest first.
+ * Instead of a small object and three arrays per outlet there are only
+ * a handful of large arrays, and the net sales of an outlet can be
+ * read as a view into the sold column without copying.
+ * The columns are read only once built. New issues can be added with
+ * addSale, which updates the outlet's base estimate in O(1) and keeps
+ * the issue in a log until compact() builds a store with it.
+ * @author nikok
+ */
+public class SalesHistoryStore implements EstimateSource {
+    public final int product_id;
+
+    private final OutletIndex rows; //outlet_id -> row
+    private final int[] outlet_id; //row -> outlet_id
+    private final int[] offsets; //row -> first issue position, with an extra end offset
+    private final int[] issue;
+    private final int[] delivered;
+    private final int[] returned;
+    private final int[] sold; //delivered - returned
+    private final AtomicLongArray estimates; //weighted base estimate per row, as double bits so updates are seen at once
+
+    //Appended issues, see addSale. Guarded by this
+    private double[] weighted_sums; //row -> weighted sum of sold copies, null until the first append
+    private double[] weight_sums; //row -> sum of the weights
+    private int[] log_outlet = new int[0];
+    private int[] log_issue = new int[0];
+    private int[] log_delivered = new int[0];
+    private int[] log_returned = new int[0];
+    private int log_count;
+
+    /**
+     * Build a store from columns of issue rows, grouping the rows by outlet.
+     * Rows of an outlet keep their order.
+     */
+    SalesHistoryStore(int product_id, int count, int[] row_outlet, int[] row_issue, int[] row_delivered, int[] row_returned) {
+        this.product_id = product_id;
+        //Number the outlets in order of first appearance, and count their issues
+        OutletIndex index = new OutletIndex();
+        int[] issue_counts = new int[16];
+        int outlets = 0;
+        for (int i = 0; i < count; i++) {
+            int row = index.putIfAbsent(row_outlet[i], outlets);
+            if (row < 0) {
+                row = outlets++;
+                if (row >= issue_counts.length) issue_counts = Arrays.copyOf(issue_counts, issue_counts.length * 2);
+            }
+            issue_counts[row]++;
+        }
+        this.rows = index;
+        this.outlet_id = new int[outlets];
+        this.offsets = new int[outlets + 1];
+        for (int r = 0; r < outlets; r++) {
+            offsets[r + 1] = offsets[r] + issue_counts[r];
+        }
+        //Place the issues, using issue_counts as the next free position of each row
+        this.issue = new int[count];
+        this.delivered = new int[count];
+        this.returned = new int[count];
+        this.sold = new int[count];
+        System.arraycopy(offsets, 0, issue_counts, 0, outlets);
+        for (int i = 0; i < count; i++) {
+            int row = index.get(row_outlet[i]);
+            int pos = issue_counts[row]++;
+            outlet_id[row] = row_outlet[i];
+            issue[pos] = row_issue[i];
+            delivered[pos] = row_delivered[i];
+            returned[pos] = row_returned[i];
+            sold[pos] = row_delivered[i] - row_returned[i];
+        }
+        this.estimates = new AtomicLongArray(outlets);
+        for (int r = 0; r < outlets; r++) {
+            setEstimate(r, WeightedEstimate.estimate(sold, offsets[r], offsets[r + 1] - offsets[r]));
+        }
+    }
+
+    /**
+     * Create a store from columns that are already grouped by outlet,
+     * e.g. from a snapshot. The columns are used as they are, not copied.
+     */
+    SalesHistoryStore(int product_id, int[] outlet_id, int[] offsets, int[] issue, int[] delivered, int[] returned) {
+        this.product_id = product_id;
+        this.outlet_id = outlet_id;
+        this.offsets = offsets;
+        this.issue = issue;
+        this.delivered = delivered;
+        this.returned = returned;
+        this.rows = new OutletIndex(outlet_id.length);
+        for (int r = 0; r < outlet_id.length; r++) {
+            rows.put(outlet_id[r], r);
+        }
+        this.sold = new int[issue.length];
+        for (int i = 0; i < sold.length; i++) {
+            sold[i] = delivered[i] - returned[i];
+        }
+        this.estimates = new AtomicLongArray(outlet_id.length);
+        for (int r = 0; r < outlet_id.length; r++) {
+            setEstimate(r, WeightedEstimate.estimate(sold, offsets[r], offsets[r + 1] - offsets[r]));
+        }
+    }
+
+    /**
+     * Copy the sales history objects of a single product into a store
+     * @param sales sales history per outlet
+     * @param product_id product of the histories
+     */
+    public static SalesHistoryStore fromHistory(HashMap<Integer, SalesHistory> sales, int product_id) {
+        int count = 0;
+        for (SalesHistory history : sales.values()) {
+            count += history.getIssueCount();
+        }
+        int[] row_outlet = new int[count];
+        int[] row_issue = new int[count];
+        int[] row_delivered = new int[count];
+        int[] row_returned = new int[count];
+        int pos = 0;
+        for (SalesHistory history : sales.values()) {
+            pos = history.copyTo(row_issue, row_delivered, row_returned, pos);
+            Arrays.fill(row_outlet, pos - history.getIssueCount(), pos, history.outlet_id);
+        }
+        return new SalesHistoryStore(product_id, count, row_outlet, row_issue, row_delivered, row_returned);
+    }
+
+    /**
+     * Load sales history from CSV straight into a store, without
+     * creating SalesHistory objects. Same format as SalesHistory.loadHistory
+     * @param product_id product of the sales history
+     * @param filename path to the CSV file
+     */
+    public static SalesHistoryStore loadHistory(int product_id, String filename) {
+        CsvLoader.Table table;
+        try {
+            table = CsvLoader.load(filename, new int[]{1, 2, 3, 4}, new int[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new SalesHistoryStore(product_id, 0, new int[0], new int[0], new int[0], new int[0]);
+        }
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        return new SalesHistoryStore(product_id, table.rows, table.ints[1], table.ints[0], table.ints[2], table.ints[3]);
+    }
+
+    /**
+     * Add the sales of an outlet's next issue, issues coming oldest first.
+     * Every weight decays by the same factor when a new issue comes in,
+     * so the outlet's base estimate is updated in O(1) with the recursion
+     * of StreamingEstimates: sum = (sum + sold) * DECAY, weights = (weights + 1) * DECAY.
+     * The new estimate is seen by predictions as soon as this returns.
+     * The issue itself goes to a log; the columns, views and snapshots
+     * cover only the history the store was built with, until compact().
+     * @return false if the outlet has no history in the store, in which case
+     * the issue is only logged and counted from compact() on
+     */
+    public synchronized boolean addSale(int outlet_id, int issueNumber, int delivery_amount, int return_amount) {
+        if (log_count == log_issue.length) {
+            int size = Math.max(16, log_count * 2);
+            log_outlet = Arrays.copyOf(log_outlet, size);
+            log_issue = Arrays.copyOf(log_issue, size);
+            log_delivered = Arrays.copyOf(log_delivered, size);
+            log_returned = Arrays.copyOf(log_returned, size);
+        }
+        log_outlet[log_count] = outlet_id;
+        log_issue[log_count] = issueNumber;
+        log_delivered[log_count] = delivery_amount;
+        log_returned[log_count] = return_amount;
+        log_count++;
+
+        int row = rows.get(outlet_id);
+        if (row < 0) return false;
+        if (weighted_sums == null) {
+            //Recover the sums of every row from its estimate, once
+            weighted_sums = new double[getOutletCount()];
+            weight_sums = new double[getOutletCount()];
+            for (int r = 0; r < weight_sums.length; r++) {
+                weight_sums[r] = WeightedEstimate.weightSum(getIssueCount(r));
+                weighted_sums[r] = getEstimate(r) * weight_sums[r];
+            }
+        }
+        weighted_sums[row] = (weighted_sums[row] + delivery_amount - return_amount) * WeightedEstimate.DECAY;
+        weight_sums[row] = (weight_sums[row] + 1) * WeightedEstimate.DECAY;
+        setEstimate(row, weighted_sums[row] / weight_sums[row]);
+        return true;
+    }
+
+    /**
+     * @return number of issues added with addSale
+     */
+    public synchronized int getAppendedCount() {
+        return log_count;
+    }
+
+    /**
+     * Build a store of the whole history, the appended issues included,
+     * e.g. to write a snapshot or to take in new outlets. O(n), so meant
+     * to be called now and then rather than for every new issue.
+     * @return a new store; this store is left as it is
+     */
+    public synchronized SalesHistoryStore compact() {
+        int count = sold.length + log_count;
+        int[] row_outlet = new int[count];
+        int[] row_issue = Arrays.copyOf(issue, count);
+        int[] row_delivered = Arrays.copyOf(delivered, count);
+        int[] row_returned = Arrays.copyOf(returned, count);
+        for (int r = 0; r < outlet_id.length; r++) {
+            Arrays.fill(row_outlet, offsets[r], offsets[r + 1], outlet_id[r]);
+        }
+        //Appended issues come after the loaded ones, so each outlet stays oldest first
+        System.arraycopy(log_outlet, 0, row_outlet, sold.length, log_count);
+        System.arraycopy(log_issue, 0, row_issue, sold.length, log_count);
+        System.arraycopy(log_delivered, 0, row_delivered, sold.length, log_count);
+        System.arraycopy(log_returned, 0, row_returned, sold.length, log_count);
+        return new SalesHistoryStore(product_id, count, row_outlet, row_issue, row_delivered, row_returned);
+    }
+
+    private double getEstimate(int row) {
+        return Double.longBitsToDouble(estimates.get(row));
+    }
+
+    private void setEstimate(int row, double estimate) {
+        estimates.set(row, Double.doubleToRawLongBits(estimate));
+    }
+
+    public int getOutletCount() {
+        return outlet_id.length;
+    }
+
+    /**
+     * @return total number of issue rows over all outlets
+     */
+    public int getIssueRowCount() {
+        return sold.length;
+    }
+
+    /**
+     * @param outlet_id outlet to look for
+     * @return row of the outlet, or -1 if it has no history
+     */
+    public int getRow(int outlet_id) {
+        return rows.get(outlet_id);
+    }
+
+    public int getOutletId(int row) {
+        return outlet_id[row];
+    }
+
+    /**
+     * @param row row of the outlet
+     * @return position of the outlet's oldest issue in the issue columns
+     */
+    public int getOffset(int row) {
+        return offsets[row];
+    }
+
+    public int getIssueCount(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    /**
+     * Net sales of all outlets; the sales of a row are found
+     * from getOffset(row) on, getIssueCount(row) values.
+     * The array is shared and must not be modified.
+     */
+    public int[] getSalesColumn() {
+        return sold;
+    }
+
+    /**
+     * Net sales of an outlet as a read only view, without copying.
+     * @param outlet_id outlet to get the sales for
+     * @return sold copies per issue, oldest first, or null if the outlet has no history
+     */
+    public IntBuffer getSales(int outlet_id) {
+        return view(sold, outlet_id);
+    }
+
+    public IntBuffer getIssues(int outlet_id) {
+        return view(issue, outlet_id);
+    }
+
+    public IntBuffer getDelivered(int outlet_id) {
+        return view(delivered, outlet_id);
+    }
+
+    public IntBuffer getReturned(int outlet_id) {
+        return view(returned, outlet_id);
+    }
+
+    private IntBuffer view(int[] column, int outlet_id) {
+        int row = rows.get(outlet_id);
+        if (row < 0) return null;
+        return IntBuffer.wrap(column, offsets[row], getIssueCount(row)).slice().asReadOnlyBuffer();
+    }
+
+    //Raw columns for writing snapshots
+    int[] getOutletIdColumn() {
+        return outlet_id;
+    }
+
+    int[] getOffsetColumn() {
+        return offsets;
+    }
+
+    int[] getIssueColumn() {
+        return issue;
+    }
+
+    int[] getDeliveredColumn() {
+        return delivered;
+    }
+
+    int[] getReturnedColumn() {
+        return returned;
+    }
+
+    @Override
+    public boolean hasOutlet(int outlet_id) {
+        return rows.get(outlet_id) >= 0;
+    }
+
+    @Override
+    public double getBaseEstimate(int outlet_id) {
+        return getEstimate(rows.get(outlet_id));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Markov chain over the sales levels of an outlet group, for
+ * sampling outlets one after another so that each outlet has a sales
+ * level close to the previous one.
+ * The states are the distinct sales levels in ascending order. From
+ * level a the chain proposes one of the WINDOW levels on either side
+ * (or a itself) and accepts b with probability min(1, count(b)/count(a)),
+ * staying at a otherwise. This is Metropolis-Hastings, so in the long run
+ * levels are visited in proportion to how many outlets have them, and a
+ * long chain gives the same sales level distribution as the group.
+ * Each state has its transitions in an alias table, so a step costs a
+ * single draw no matter how many levels there are. The outlets are
+ * grouped into one bucket per level.
+ * @author nikok
+ */
+public class SalesLevelChain {
+    public static final int WINDOW = 2; //levels proposed on either side of the current one
+
+    private static final int SPAN = 2 * WINDOW + 1; //transitions per state
+
+    private final int[] rows; //group rows, ordered by sales level
+    private final int[] offsets; //level -> first position in rows, with an extra end offset
+    private final int levels;
+    //Alias tables, SPAN slots per state. Slot i of state a leads to level a - WINDOW + i
+    private final double[] probability;
+    private final int[] alias;
+
+    public SalesLevelChain(OutletGroup group) {
+        int count = group.outlet_count;
+        ProbabilityDistribution pd = new ProbabilityDistribution(Arrays.copyOf(group.outlet_sales_level, count));
+        levels = (count == 0) ? 0 : pd.events.length;
+        offsets = new int[levels + 1];
+        for (int a = 0; a < levels; a++) offsets[a + 1] = offsets[a] + pd.counts[a];
+        int[] next = Arrays.copyOf(offsets, Math.max(levels, 1));
+        rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[next[Arrays.binarySearch(pd.events, group.outlet_sales_level[i])]++] = i;
+        }
+
+        probability = new double[levels * SPAN];
+        alias = new int[levels * SPAN];
+        double[] p = new double[SPAN];
+        for (int a = 0; a < levels; a++) {
+            double stay = 1.0;
+            for (int i = 0; i < SPAN; i++) {
+                int b = a - WINDOW + i;
+                p[i] = 0;
+                if (b == a || b < 0 || b >= levels) continue;
+                p[i] = Math.min(1.0, (double)pd.counts[b] / pd.counts[a]) / SPAN;
+                stay -= p[i];
+            }
+            p[WINDOW] = stay;
+            buildAlias(p, a * SPAN);
+        }
+    }
+
+    /**
+     * Vose's alias method: split the probabilities into SPAN slots of equal
+     * weight, each holding its own outcome with some probability and
+     * an alias outcome otherwise.
+     */
+    private void buildAlias(double[] p, int base) {
+        double[] scaled = new double[SPAN];
+        int[] small = new int[SPAN];
+        int[] large = new int[SPAN];
+        int smalls = 0, larges = 0;
+        for (int i = 0; i < SPAN; i++) {
+            scaled[i] = p[i] * SPAN;
+            if (scaled[i] < 1.0) small[smalls++] = i;
+            else large[larges++] = i;
+        }
+        while (smalls > 0 && larges > 0) {
+            int s = small[--smalls];
+            int l = large[--larges];
+            probability[base + s] = scaled[s];
+            alias[base + s] = l;
+            scaled[l] -= 1.0 - scaled[s];
+            if (scaled[l] < 1.0) small[smalls++] = l;
+            else large[larges++] = l;
+        }
+        //What is left has weight 1, give or take rounding
+        while (larges > 0) {
+            int l = large[--larges];
+            probability[base + l] = 1.0;
+            alias[base + l] = l;
+        }
+        while (smalls > 0) {
+            int s = small[--smalls];
+            probability[base + s] = 1.0;
+            alias[base + s] = s;
+        }
+    }
+
+    public int getLevelCount() {
+        return levels;
+    }
+
+    /**
+     * One step of the chain
+     * @param level current state
+     * @return next state
+     */
+    public int step(int level, SplittableRandom rand) {
+        int slot = rand.nextInt(SPAN);
+        int at = level * SPAN + slot;
+        if (rand.nextDouble() >= probability[at]) slot = alias[at];
+        return level - WINDOW + slot;
+    }
+
+    /**
+     * Draw distinct rows of the group by walking the chain. The first
+     * outlet is picked uniformly, every next one from the level the chain
+     * steps to. If all outlets of that level are already taken, the nearest
+     * level with outlets left is used instead.
+     * Outlets are drawn from each level with a partial Fisher-Yates shuffle
+     * kept in a sparse index. Used up levels are linked to their neighbours
+     * in two union-find forests, one pointing up and one down, so the
+     * nearest level with outlets left is found in amortised near constant
+     * time, without scanning. A chain of n steps is O(n a(levels) + levels),
+     * a being the inverse Ackermann function.
+     * @param count how many rows to draw, at most the size of the group
+     * @param rand random stream to draw from
+     * @return the drawn rows, in the order of the chain
+     */
+    public int[] sample(int count, SplittableRandom rand) {
+        int[] picked = new int[count];
+        if (count == 0) return picked;
+        int[] taken = new int[levels];
+        //up[a]: a if level a has outlets left, else a level above it; up[levels] marks the top.
+        //down[a + 1] likewise for the levels below a, down[0] marking the bottom.
+        int[] up = new int[levels + 1];
+        int[] down = new int[levels + 1];
+        for (int a = 0; a <= levels; a++) {
+            up[a] = a;
+            down[a] = a;
+        }
+        OutletIndex swapped = new OutletIndex(count);
+        int level = levelAt(rand.nextInt(rows.length));
+        for (int i = 0; i < count; i++) {
+            if (i > 0) level = step(level, rand);
+            level = nearestAvailable(level, up, down, rand);
+            //Swap a random untaken position of the level to its first untaken position
+            int first = offsets[level] + taken[level];
+            int j = first + rand.nextInt(offsets[level + 1] - first);
+            int pos = swapped.get(j);
+            if (pos < 0) pos = j;
+            int displaced = swapped.get(first);
+            if (displaced < 0) displaced = first;
+            swapped.put(j, displaced);
+            taken[level]++;
+            if (taken[level] == offsets[level + 1] - offsets[level]) {
+                //Level used up, link it to the levels next to it
+                up[level] = level + 1;
+                down[level + 1] = level;
+            }
+            picked[i] = rows[pos];
+        }
+        return picked;
+    }
+
+    /**
+     * @param position position in rows
+     * @return level of the row at the position
+     */
+    private int levelAt(int position) {
+        int lo = 0, hi = levels - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= position) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * The level itself if it has outlets left, otherwise the nearest level
+     * that has, picking a random side when both are equally near
+     */
+    private int nearestAvailable(int level, int[] up, int[] down, SplittableRandom rand) {
+        if (up[level] == level) return level;
+        boolean upFirst = rand.nextBoolean(); //don't favour either side
+        int above = find(up, level); //levels if there is none
+        int below = find(down, level + 1) - 1; //-1 if there is none
+        if (above == levels && below < 0) throw new IllegalStateException("No outlets left to sample");
+        if (above == levels) return below;
+        if (below < 0) return above;
+        int d = (above - level) - (level - below);
+        if (d != 0) return (d < 0) ? above : below;
+        return upFirst ? above : below;
+    }
+
+    /**
+     * Root of a in a union-find forest, halving the path on the way
+     */
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+}
@@ -8,6 +8,7 @@ package kandisampler;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Calculate the sales estimate for a product given the sales history.
@@ -21,12 +22,19 @@ public class SalesPrediction {
     private HashMap<Integer, Integer> weighted_basic_sales;
     private HashMap<Integer, Double> sales_estimates;
     private OutletGroup outlets;
-    private HashMap<Integer, SalesHistory> sales;
+    private EstimateSource sales;
     private HashMap<Integer, SeasonalData> seasonal;
     
     private ArrayList<SalesRule> sales_rules;
+    private double[] rule_multipliers; //sales_rules compiled per outlet row, null until needed
+    private SalesAggregate aggregate; //predictions grouped, null until needed
+    private OutletGroup aggregate_group; //group the aggregate was built for
     
-    public SalesPrediction(HashMap<Integer, SalesHistory> sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup outlets) {
+    public SalesPrediction(Map<Integer, SalesHistory> sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup outlets) {
+        this(new HistoryEstimates(sales), seasonal, outlets);
+    }
+    
+    public SalesPrediction(EstimateSource sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup outlets) {
         this.outlets = outlets;
         this.sales = sales;
         this.seasonal = seasonal;
@@ -37,59 +45,39 @@ public class SalesPrediction {
     
     public void setOutlets(OutletGroup outlets) {
         this.outlets = outlets;
+        this.rule_multipliers = null;
     }
     
     public void calculateWeightedBasicSales() {
         for (int outlet : outlets.outlet_id) {
-            weighted_basic_sales.put(outlet, (int)getWeightedEstimate(sales.get(outlet).getSales()));
+            weighted_basic_sales.put(outlet, (int)sales.getBaseEstimate(outlet));
         }
     }
     
     public double calculatePrediction(int outlet_id, int week) {
-        double prediction;
-        int[] sold_copies = sales.get(outlet_id).getSales();
-        double weekly_multi = 1.0;
-        if (week > 0 && seasonal.containsKey(outlet_id)) {
-            weekly_multi = seasonal.get(outlet_id).weekly_data[week];
+        int row = this.outlets.getPosition(outlet_id);
+        if (row == -1) {
+            System.out.println("Couldnt find outlet");
+            return sales.getBaseEstimate(outlet_id) * getWeeklyMultiplier(outlet_id, week);
         }
-        prediction = getWeightedEstimate(sold_copies) * weekly_multi;
-        
-        prediction = calculateSalesRules(outlet_id, prediction);
-        
-        return prediction;
+        return calculatePrediction(row, outlet_id, week);
     }
     
-    private double calculateSalesRules(int outlet_id, double estimate) {
-        double new_estimate = estimate;
-        int id = -1;
-        for (int i = 0; i < this.outlets.outlet_id.length; i++) {
-            if (this.outlets.outlet_id[i] == outlet_id) {
-                id = i;
-                break;
-            }
-        }
-        if (id == -1) {
-            System.out.println("Couldnt find outlet");
-            return new_estimate;
-        }
-        for (SalesRule rule : this.sales_rules) {
-            switch (rule.rule_type) {
-                case 0: 
-                    new_estimate = new_estimate * rule.change_amount;
-                    break;
-                case 1: 
-                    if (this.outlets.outlet_chain[id] == rule.outlets_id) new_estimate = new_estimate * rule.change_amount;
-                    break;
-                case 2: 
-                    if (this.outlets.outlet_branch[id] == rule.outlets_id) new_estimate = new_estimate * rule.change_amount;
-                    break;
-                case 3: 
-                    if (this.outlets.outlet_language[id] == rule.outlets_id) new_estimate = new_estimate * rule.change_amount;
-                    break;
-                default: break;
-            }
-        }
-        return new_estimate;
+    private double calculatePrediction(int row, int outlet_id, int week) {
+        return sales.getBaseEstimate(outlet_id) * getWeeklyMultiplier(outlet_id, week) * getRuleMultipliers()[row];
+    }
+    
+    private double getWeeklyMultiplier(int outlet_id, int week) {
+        return SeasonalData.getMultiplier(seasonal, outlet_id, week);
+    }
+    
+    /**
+     * Sales rules compiled into a multiplier per outlet row.
+     * Compiled on first use and kept until the rules or outlets change.
+     */
+    private double[] getRuleMultipliers() {
+        if (rule_multipliers == null) rule_multipliers = SalesRule.compile(sales_rules, outlets);
+        return rule_multipliers;
     }
     
     public double getTotalSalesEstimate() {
@@ -109,28 +97,120 @@ public class SalesPrediction {
         return sales_estimates.keySet().size();
     }
     
-    private double getWeightedEstimate(int[] sold_copies) {
-        double estimate = 0;
-        double weight_sum = 0;
-        double n = 1;
-        for (int i = sold_copies.length-1; i >= 0; i--) {
-            //Start from the latest, go through all the sales;
-            double pow = -n/3;
-            double weight = Math.pow(Math.E, pow);
-            weight_sum = weight_sum + weight;
-            estimate += ((double)sold_copies[i] * weight);
-            n++;
+    public void calculatePredictions(int week) {
+        long start = Metrics.start();
+        this.week = week;
+        int scored = 0;
+        for (int row = 0; row < outlets.outlet_id.length; row++) {
+            int outlet = outlets.outlet_id[row];
+            if (sales.hasOutlet(outlet)) {
+                sales_estimates.put(outlet, calculatePrediction(row, outlet, week));
+                scored++;
+            }
         }
-        
-        estimate = estimate / weight_sum;
-        return estimate;
+        this.aggregate = null;
+        Metrics.stop(Metrics.PREDICTION, start);
+        Metrics.count(Metrics.OUTLETS_SCORED, scored);
     }
     
-    public void calculatePredictions(int week) {
+    /**
+     * Recalculate the prediction of a single outlet for the current week,
+     * e.g. after new sales were added to its history
+     * @param outlet_id outlet to update
+     */
+    public void updatePrediction(int outlet_id) {
+        int row = outlets.getPosition(outlet_id);
+        if (row < 0 || !sales.hasOutlet(outlet_id)) return;
+        sales_estimates.put(outlet_id, calculatePrediction(row, outlet_id, week));
+        this.aggregate = null;
+    }
+    
+    /**
+     * Calculate predictions straight from a sales history file that is grouped
+     * by outlet, without loading the history. Each prediction is handed to the
+     * listener as soon as the outlet's last issue has been read, and nothing is
+     * kept in memory. Outlets not in this prediction's group are passed over.
+     * @param filename path to the sales history CSV, rows grouped by outlet, issues oldest first
+     * @param week week number, 1-52, or 0 for no seasonal variation
+     * @param listener receiver of the predictions
+     * @return number of outlets in the file
+     */
+    public int streamPredictions(String filename, final int week, final StreamingEstimates.EstimateListener listener) {
         this.week = week;
-        for (int outlet : outlets.outlet_id) {
-            if (sales.containsKey(outlet)) sales_estimates.put(outlet, calculatePrediction(outlet, week));
+        final double[] rules = getRuleMultipliers();
+        return StreamingEstimates.foldSorted(filename, new StreamingEstimates.EstimateListener() {
+            @Override
+            public void estimate(int outlet_id, double estimate) {
+                int row = outlets.getPosition(outlet_id);
+                if (row < 0) return;
+                listener.estimate(outlet_id, estimate * getWeeklyMultiplier(outlet_id, week) * rules[row]);
+            }
+        });
+    }
+    
+    /**
+     * Calculate the estimates of every outlet for every week in one pass.
+     * Base estimate and sales rules are applied once per outlet and then
+     * multiplied by the outlet's row of the seasonal matrix.
+     * @return estimates per outlet and week, with week and chain totals
+     */
+    public ForecastMatrix calculateYearlyForecast() {
+        final int weeks = ForecastMatrix.WEEKS;
+        int rows = outlets.outlet_id.length;
+        double[] season = new SeasonalMatrix(seasonal, outlets).getMultipliers();
+        double[] rules = getRuleMultipliers();
+        int[] chainOf = new int[rows];
+        
+        ForecastMatrix forecast = new ForecastMatrix();
+        forecast.rows = rows;
+        forecast.estimates = new double[rows * weeks];
+        forecast.week_totals = new double[weeks];
+        forecast.chains = OutletGroup.encode(outlets.outlet_chain, chainOf);
+        forecast.chain_week_totals = new double[forecast.chains.length * weeks];
+        for (int row = 0; row < rows; row++) {
+            int outlet = outlets.outlet_id[row];
+            if (!sales.hasOutlet(outlet)) continue;
+            forecast.outlet_count++;
+            double base = sales.getBaseEstimate(outlet);
+            double rule = rules[row];
+            int offset = row * weeks;
+            int chainOffset = chainOf[row] * weeks;
+            for (int week = 0; week < weeks; week++) {
+                double estimate = base * season[offset + week] * rule;
+                forecast.estimates[offset + week] = estimate;
+                forecast.week_totals[week] += estimate;
+                forecast.chain_week_totals[chainOffset + week] += estimate;
+            }
         }
+        return forecast;
+    }
+    
+    /**
+     * Group the predictions of the outlets of a group by chain, branch and language.
+     * The aggregate is built in one pass and kept until the predictions are
+     * recalculated, so asking again for the same group costs nothing.
+     * @param group outlets to include; outlets without a prediction are left out
+     * @return sums, counts and means of the predictions
+     */
+    public SalesAggregate aggregate(OutletGroup group) {
+        if (aggregate == null || aggregate_group != group) {
+            aggregate = new SalesAggregate(group, getRowEstimates(group));
+            aggregate_group = group;
+        }
+        return aggregate;
+    }
+    
+    /**
+     * @param group outlets to get the predictions of
+     * @return prediction of each row of the group, NaN for outlets without one
+     */
+    public double[] getRowEstimates(OutletGroup group) {
+        double[] values = new double[group.outlet_id.length];
+        for (int i = 0; i < values.length; i++) {
+            Double estimate = this.sales_estimates.get(group.outlet_id[i]);
+            values[i] = (estimate == null) ? Double.NaN : estimate;
+        }
+        return values;
     }
     
     /**
@@ -138,28 +218,29 @@ public class SalesPrediction {
      * @param group 
      */
     public void printSalesPerOutletChain(OutletGroup group) {
-        int[] chains = group.getOutletChains();
+        SalesAggregate aggregate = aggregate(group);
+        int[] chains = aggregate.getValues(SalesAggregate.CHAIN);
         for (int i = 0; i < chains.length; i++) {
-            System.out.println("Sales for chain " + chains[i] + ": " + getChainSumSales(chains[i], group));
+            System.out.println("Sales for chain " + chains[i] + ": " + aggregate.getSum(SalesAggregate.CHAIN, chains[i], 0, 0));
         }   
     }
     
+    /**
+     * Sum of the predictions of a chain, read from aggregate(group),
+     * so looping over the chains of a group builds the aggregate only once
+     */
     public double getChainSumSales(int outletChain, OutletGroup group) {
-        double sum = 0;
-        for (int i = 0; i < group.outlet_id.length; i++) {
-            if (group.outlet_chain[i] == outletChain && this.sales_estimates.containsKey(group.outlet_id[i])) {
-                sum += this.sales_estimates.get(group.outlet_id[i]);
-            }
-        }
-        return sum;
+        return aggregate(group).getSum(SalesAggregate.CHAIN, outletChain, 0, 0);
     }
     
     public void clearSalesRules() {
         this.sales_rules = new ArrayList<>();
+        this.rule_multipliers = null;
     }
     
     public void addSalesRule(SalesRule rule) {
         this.sales_rules.add(rule);
+        this.rule_multipliers = null;
     }
     public int getWeek() {
         return this.week;
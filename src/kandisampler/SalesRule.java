@@ -6,6 +6,9 @@
  */
 package kandisampler;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * A rule to sales estimates, changing
  * the basic sales estimate of a selected group
@@ -16,7 +19,7 @@ public class SalesRule {
     public final static int ALL = 0;
     public final static int CHAIN = 1;
     public final static int BRANCH = 2;
-    public final static int LANGUAGE = 1;
+    public final static int LANGUAGE = 3;
     public int rule_type; //consider changing ENUM
     public int outlets_id;
     public double change_amount;
@@ -27,4 +30,38 @@ public class SalesRule {
         this.change_amount = change_amount;
         this.outlets_id = outlets_id;
     }
+    
+    /**
+     * Compile a list of rules into a multiplier per outlet row of the group.
+     * Each rule is a single pass over the matching outlet column, so the
+     * cost is rules * outlets with no lookups.
+     * @param rules rules to apply, in order
+     * @param group outlets to calculate the multipliers for
+     * @return combined change of all the rules for each row of the group
+     */
+    public static double[] compile(List<SalesRule> rules, OutletGroup group) {
+        double[] multipliers = new double[group.outlet_id.length];
+        Arrays.fill(multipliers, 1.0);
+        for (SalesRule rule : rules) {
+            switch (rule.rule_type) {
+                case ALL:
+                    for (int i = 0; i < multipliers.length; i++) multipliers[i] *= rule.change_amount;
+                    break;
+                case CHAIN: applyMasked(multipliers, group.outlet_chain, rule); break;
+                case BRANCH: applyMasked(multipliers, group.outlet_branch, rule); break;
+                case LANGUAGE: applyMasked(multipliers, group.outlet_language, rule); break;
+                default: break;
+            }
+        }
+        return multipliers;
+    }
+    
+    private static void applyMasked(double[] multipliers, int[] column, SalesRule rule) {
+        //Branch free, so the loop can be vectorized
+        int id = rule.outlets_id;
+        double change = rule.change_amount;
+        for (int i = 0; i < multipliers.length; i++) {
+            multipliers[i] *= (column[i] == id) ? change : 1.0;
+        }
+    }
 }
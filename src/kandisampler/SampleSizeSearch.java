@@ -0,0 +1,132 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Searches for the smallest sample that extrapolates the total sales
+ * within a target error, instead of running a fixed number of trials
+ * for every fraction.
+ * The error of a fraction is the root mean square difference between
+ * the extrapolated totals of its trials and the total of the full group,
+ * relative to the full total. Trials are run in parallel batches, and the
+ * running mean and variance are kept with Welford's algorithm. A fraction
+ * is decided as soon as the confidence interval of its error is on one
+ * side of the target, or when the trial limit is reached.
+ * Larger samples have smaller errors, so the fractions are binary searched.
+ * @author nikok
+ */
+public class SampleSizeSearch {
+    public static final int MIN_TRIALS = 10;
+    public static final int MAX_TRIALS = 100;
+    public static final int BATCH = 10; //trials run in parallel between the checks
+    public static final double Z = 1.96; //95% confidence
+
+    private final TrialRunner runner;
+    private final double target;
+    private final ArrayList<Evaluation> evaluations;
+    private double full_prediction;
+
+    /**
+     * Outcome of the trials of a single fraction
+     */
+    public static class Evaluation {
+        public int fraction;
+        public int trials;
+        public double mean; //mean of the extrapolated totals
+        public double deviation; //standard deviation of the extrapolated totals
+        public double relative_error; //root mean square error relative to the full prediction
+        public boolean meets_target;
+
+        @Override
+        public String toString() {
+            return "1/"+fraction+": "+trials+" trials, mean "+mean+", relative error "+relative_error
+                    +(meets_target ? " (meets target)" : " (misses target)");
+        }
+    }
+
+    /**
+     * @param runner trial runner with the base group and sales rules to use
+     * @param target largest accepted relative error of the extrapolated total, e.g. 0.05 for 5%
+     */
+    public SampleSizeSearch(TrialRunner runner, double target) {
+        this.runner = runner;
+        this.target = target;
+        this.evaluations = new ArrayList<>();
+    }
+
+    /**
+     * Find the largest of the fractions (smallest sample) that meets the target
+     * @param fractions candidate sample sizes (as 1/fraction of base group)
+     * @param seed seed of the random streams; same seed gives same results
+     * @return evaluation of the chosen fraction, or null if none meets the target
+     */
+    public Evaluation search(int[] fractions, long seed) {
+        int[] sorted = Arrays.copyOf(fractions, fractions.length);
+        Arrays.sort(sorted); //largest sample first
+        full_prediction = runner.predictFullGroup();
+        evaluations.clear();
+        SplittableRandom root = new SplittableRandom(seed);
+        Evaluation best = null;
+        int lo = 0, hi = sorted.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Evaluation e = evaluate(sorted[mid], root.split());
+            if (e.meets_target) {
+                best = e;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Run trials of a fraction until its error is known to be on one side of the target
+     */
+    private Evaluation evaluate(int fraction, SplittableRandom rand) {
+        RunningStats stats = new RunningStats();
+        Evaluation e = new Evaluation();
+        e.fraction = fraction;
+        while (stats.getCount() < MAX_TRIALS) {
+            for (TrialResult r : runner.runTrials(new int[]{fraction}, BATCH, rand.nextLong())) {
+                stats.add(r.prediction);
+            }
+            e.trials = (int)stats.getCount();
+            e.mean = stats.getMean();
+            e.deviation = stats.getStandardDeviation();
+            double bias = e.mean - full_prediction;
+            double mse = e.deviation * e.deviation + bias * bias;
+            e.relative_error = Math.sqrt(mse) / Math.abs(full_prediction);
+            e.meets_target = (e.relative_error <= target);
+            if (e.trials < MIN_TRIALS) continue;
+            //The standard deviation estimate has a relative standard error of about 1/sqrt(2(n-1))
+            double margin = Z / Math.sqrt(2.0 * (e.trials - 1));
+            if (e.relative_error * (1 + margin) < target || e.relative_error * (1 - margin) > target) break;
+        }
+        evaluations.add(e);
+        return e;
+    }
+
+    /**
+     * @return total sales extrapolated from the full group, as used by the last search
+     */
+    public double getFullPrediction() {
+        return full_prediction;
+    }
+
+    /**
+     * @return evaluations of the last search, in the order they were run
+     */
+    public ArrayList<Evaluation> getEvaluations() {
+        return evaluations;
+    }
+}
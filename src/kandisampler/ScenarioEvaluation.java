@@ -0,0 +1,75 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Evaluates many what-if scenarios over one outlet group in a single pass.
+ * The seasonally adjusted base estimate of each outlet is looked up once,
+ * each scenario's rules are compiled into a multiplier column, and one
+ * pass over the rows adds every scenario's estimate to its total and
+ * chain total. This replaces a SalesPrediction per scenario.
+ * @author nikok
+ */
+public class ScenarioEvaluation {
+    private final EstimateSource sales;
+    private final HashMap<Integer, SeasonalData> seasonal;
+    private final OutletGroup outlets;
+
+    public ScenarioEvaluation(EstimateSource sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup outlets) {
+        this.sales = sales;
+        this.seasonal = seasonal;
+        this.outlets = outlets;
+    }
+
+    /**
+     * Calculate the totals of each scenario for given week
+     * @param week week number, 1-52, or 0 for no seasonal variation
+     * @param scenarios sales rules of each scenario
+     * @return totals per scenario, and per chain within each scenario
+     */
+    public ScenarioResult evaluate(int week, List<? extends List<SalesRule>> scenarios) {
+        int rows = outlets.outlet_id.length;
+        int count = scenarios.size();
+
+        //Base estimate per row, NaN for outlets without history
+        double[] base = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            int outlet = outlets.outlet_id[row];
+            base[row] = sales.hasOutlet(outlet) ? sales.getBaseEstimate(outlet) * SeasonalData.getMultiplier(seasonal, outlet, week) : Double.NaN;
+        }
+
+        //Dense chain numbers for the breakdown
+        int[] chainOf = new int[rows];
+        int[] chains = OutletGroup.encode(outlets.outlet_chain, chainOf);
+
+        double[][] multipliers = new double[count][];
+        for (int s = 0; s < count; s++) {
+            multipliers[s] = SalesRule.compile(scenarios.get(s), outlets);
+        }
+
+        ScenarioResult result = new ScenarioResult();
+        result.totals = new double[count];
+        result.chains = chains;
+        result.chain_totals = new double[count][chains.length];
+        for (int row = 0; row < rows; row++) {
+            double estimate = base[row];
+            if (Double.isNaN(estimate)) continue;
+            result.outlet_count++;
+            result.base_total += estimate;
+            int c = chainOf[row];
+            for (int s = 0; s < count; s++) {
+                double scenarioEstimate = estimate * multipliers[s][row];
+                result.totals[s] += scenarioEstimate;
+                result.chain_totals[s][c] += scenarioEstimate;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Sales estimates of a set of what-if scenarios, each a list of sales rules,
+ * over the same outlet group.
+ * @author nikok
+ */
+public class ScenarioResult {
+    public int outlet_count; //outlets with sales history included in the totals
+    public double base_total; //total without any sales rules
+    public double[] totals; //total per scenario
+    public int[] chains; //chain IDs, in order of first appearance in the group
+    public double[][] chain_totals; //[scenario][chain] totals, chain as index to chains
+
+    /**
+     * @param scenario index of the scenario
+     * @param chain chain ID
+     * @return total of the chain in the scenario, 0 if the chain has no outlets
+     */
+    public double getChainTotal(int scenario, int chain) {
+        for (int c = 0; c < chains.length; c++) {
+            if (chains[c] == chain) return chain_totals[scenario][c];
+        }
+        return 0;
+    }
+}
@@ -6,9 +6,6 @@
  */
 package kandisampler;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 
@@ -27,6 +24,22 @@ public class SeasonalData {
         this.weekly_data = new double[53];
     }
     
+    /**
+     * Seasonal multiplier of an outlet for given week.
+     * Week 0 and outlets without seasonal data have no seasonal variation.
+     * @param sd Seasonal Data hashmap for the product
+     * @param outlet_id outlet to get the multiplier for
+     * @param week week number, 1-52, or 0 for no seasonal variation
+     * @return multiplier for the outlet's base estimate
+     */
+    public static double getMultiplier(HashMap<Integer, SeasonalData> sd, int outlet_id, int week) {
+        if (week > 0) {
+            SeasonalData data = sd.get(outlet_id);
+            if (data != null) return data.weekly_data[week];
+        }
+        return 1.0;
+    }
+    
     /**
      * Load seasonal data for given product into a hashmap of SeasonalData objects
      * @param sd Seasonal Data hashmap for the given product
@@ -34,44 +47,27 @@ public class SeasonalData {
      * @param filename path to the CSV file
      */
     public static void loadSeasonalData(HashMap<Integer, SeasonalData> sd, int product_id, String filename) {
-        BufferedReader br = null;
-        String line = "";
-        String split = ";";
+        //CSV: ?;OUTLET_ID;PRODUCT_ID;WEEK;MULTIPLIER
+        CsvLoader.Table table;
         try {
-            br = new BufferedReader(new FileReader(filename));
-            try {
-                while ((line = br.readLine()) != null) {
-                    // use comma as separator
-                    String[] data = line.split(split);
-                    if (data.length < 5) continue;
-                    int outlet = Integer.parseInt(data[1]);
-                    int product = Integer.parseInt(data[2]);
-                    int week = Integer.parseInt(data[3]);
-                    
-                    double multi = Double.parseDouble(data[4].replace(",","."));
-                    
-                    
-                    if (product != product_id) continue;
-                    if (!sd.containsKey(outlet)) sd.put(outlet, new SeasonalData(product_id, outlet));
-                    if (week > 0 && week <= 52 ) sd.get(outlet).weekly_data[week] = multi;
-                }
-            } catch (Exception e) {
-                System.out.println("Failed to parse line: "+e);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            table = CsvLoader.load(filename, new int[]{1, 2, 3}, new int[]{4});
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            return;
+        }
+        if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        int[] outlet = table.ints[0];
+        int[] product = table.ints[1];
+        int[] week = table.ints[2];
+        double[] multi = table.doubles[0];
+        for (int i = 0; i < table.rows; i++) {
+            if (product[i] != product_id) continue;
+            SeasonalData data = sd.get(outlet[i]);
+            if (data == null) {
+                data = new SeasonalData(product_id, outlet[i]);
+                sd.put(outlet[i], data);
             }
+            if (week[i] > 0 && week[i] <= 52 ) data.weekly_data[week[i]] = multi[i];
         }
-        
-        
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Seasonal multipliers of an outlet group as one dense matrix,
+ * with a row of WEEKS multipliers per outlet row of the group.
+ * Week 0 (no seasonal variation) and outlets without seasonal data
+ * have multiplier 1.0, as in SeasonalData.getMultiplier.
+ * Rows are laid out one after another, so all weeks of an outlet
+ * are read from consecutive memory.
+ * @author nikok
+ */
+public class SeasonalMatrix {
+    public static final int WEEKS = 53;
+
+    public final int rows;
+    private final double[] multipliers; //row * WEEKS + week
+
+    public SeasonalMatrix(HashMap<Integer, SeasonalData> seasonal, OutletGroup outlets) {
+        this.rows = outlets.outlet_id.length;
+        this.multipliers = new double[rows * WEEKS];
+        for (int row = 0; row < rows; row++) {
+            int offset = row * WEEKS;
+            SeasonalData sd = seasonal.get(outlets.outlet_id[row]);
+            if (sd == null) {
+                Arrays.fill(multipliers, offset, offset + WEEKS, 1.0);
+            } else {
+                System.arraycopy(sd.weekly_data, 0, multipliers, offset, WEEKS);
+                multipliers[offset] = 1.0;
+            }
+        }
+    }
+
+    public double get(int row, int week) {
+        return multipliers[row * WEEKS + week];
+    }
+
+    /**
+     * The whole matrix; the weeks of a row start from row * WEEKS.
+     * The array is shared and must not be modified.
+     */
+    public double[] getMultipliers() {
+        return multipliers;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Base estimates folded straight from a sales history stream,
+ * without keeping the history itself.
+ * The weights of WeightedEstimate decay by the same factor from one
+ * issue to the next, so when the issues of an outlet come oldest first,
+ * the weighted sum and the sum of weights can be updated one issue at a time:
+ * sum = sum * DECAY + sold * DECAY, weights = weights * DECAY + DECAY.
+ * The state is two doubles per outlet, or nothing at all for input
+ * that is sorted by outlet (see foldSorted).
+ * @author nikok
+ */
+public class StreamingEstimates implements EstimateSource {
+    //CSV: ?;ISSUE;OUTLET_ID;DELIVERED;RETURNED, "?" is the product ID in files of many products (ProductData)
+    private static final int[] FIELDS = {2, 3, 4};
+
+    private final OutletIndex rows; //outlet_id -> row
+    private double[] sums; //weighted sum of sold copies per row
+    private double[] weights; //sum of weights per row
+    private int outlets;
+
+    /**
+     * Receives the estimate of each outlet when folding sorted input
+     */
+    public interface EstimateListener {
+        /**
+         * @param outlet_id outlet the estimate is for
+         * @param estimate weighted base estimate of the outlet
+         */
+        void estimate(int outlet_id, double estimate);
+    }
+
+    public StreamingEstimates() {
+        this.rows = new OutletIndex();
+        this.sums = new double[1024];
+        this.weights = new double[1024];
+        this.outlets = 0;
+    }
+
+    /**
+     * Fold one issue into the estimate of an outlet.
+     * Issues of an outlet must come oldest first.
+     * @param outlet_id outlet of the issue
+     * @param sold sold copies of the issue
+     */
+    public void addSale(int outlet_id, int sold) {
+        int row = rows.putIfAbsent(outlet_id, outlets);
+        if (row < 0) {
+            row = outlets++;
+            if (row >= sums.length) {
+                sums = Arrays.copyOf(sums, sums.length * 2);
+                weights = Arrays.copyOf(weights, weights.length * 2);
+            }
+        }
+        sums[row] = (sums[row] + sold) * WeightedEstimate.DECAY;
+        weights[row] = (weights[row] + 1) * WeightedEstimate.DECAY;
+    }
+
+    public int getOutletCount() {
+        return outlets;
+    }
+
+    @Override
+    public boolean hasOutlet(int outlet_id) {
+        return rows.get(outlet_id) >= 0;
+    }
+
+    @Override
+    public double getBaseEstimate(int outlet_id) {
+        int row = rows.get(outlet_id);
+        return sums[row] / weights[row];
+    }
+
+    /**
+     * Stream a sales history file of any size into estimates.
+     * Rows may come in any order between outlets, but the issues of each
+     * outlet must be oldest first, as in SalesHistory.loadHistory.
+     * @param filename path to the CSV file
+     * @return estimates of every outlet in the file
+     */
+    public static StreamingEstimates load(String filename) {
+        final StreamingEstimates estimates = new StreamingEstimates();
+        try {
+            CsvLoader.Table table = CsvLoader.stream(filename, FIELDS, new int[0], new CsvLoader.RowHandler() {
+                @Override
+                public void row(int[] ints, double[] doubles) {
+                    estimates.addSale(ints[0], ints[1] - ints[2]);
+                }
+            });
+            if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return estimates;
+    }
+
+    /**
+     * Stream a sales history file that is grouped by outlet, handing out the
+     * estimate of each outlet as soon as its last issue has been read.
+     * Only the outlet being read is kept in memory.
+     * @param filename path to the CSV file, rows grouped by outlet, issues oldest first
+     * @param listener receiver of the estimates
+     * @return number of outlets in the file
+     */
+    public static int foldSorted(String filename, EstimateListener listener) {
+        SortedFold fold = new SortedFold(listener);
+        try {
+            CsvLoader.Table table = CsvLoader.stream(filename, FIELDS, new int[0], fold);
+            if (table.skipped > 0) System.out.println("Failed to parse "+table.skipped+" lines from "+filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        fold.finish();
+        return fold.outlets;
+    }
+
+    /**
+     * Folds the issues of one outlet at a time
+     */
+    private static class SortedFold implements CsvLoader.RowHandler {
+        private final EstimateListener listener;
+        private boolean started;
+        private int outlet_id;
+        private double sum;
+        private double weights;
+        int outlets;
+
+        SortedFold(EstimateListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void row(int[] ints, double[] doubles) {
+            if (started && ints[0] != outlet_id) finish();
+            started = true;
+            outlet_id = ints[0];
+            sum = (sum + ints[1] - ints[2]) * WeightedEstimate.DECAY;
+            weights = (weights + 1) * WeightedEstimate.DECAY;
+        }
+
+        /**
+         * Hand out the estimate of the current outlet
+         */
+        void finish() {
+            if (!started) return;
+            listener.estimate(outlet_id, sum / weights);
+            outlets++;
+            started = false;
+            sum = 0;
+            weights = 0;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Outcome of a single sample trial: the similiarity of the sample
+ * to the base group and the sales estimate extrapolated from it.
+ * @author nikok
+ */
+public class TrialResult {
+    public int fraction; //sample size as 1/fraction of base group
+    public int trial; //running number of the trial within its fraction
+    public int product_id; //product the trial was run for, 0 if not set
+    public double hellinger_sales;
+    public double hellinger_chain;
+    public double hellinger_branch;
+    public double prediction; //sales estimate extrapolated to the base group
+    public BootstrapResult interval; //confidence intervals of the prediction, null unless asked for
+
+    public TrialResult(int fraction, int trial) {
+        this.fraction = fraction;
+        this.trial = trial;
+    }
+}
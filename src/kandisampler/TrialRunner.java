@@ -0,0 +1,211 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the sample trials of a fraction sweep in parallel.
+ * Every (fraction, trial) pair is independent, so the pairs are spread
+ * over a ForkJoinPool. Each trial gets its own random stream, split from
+ * a single seed before any work starts, so a run with the same seed gives
+ * the same results regardless of thread count or scheduling.
+ * @author nikok
+ */
+public class TrialRunner {
+    private final OutletGroup all_outlets;
+    private final EstimateSource sales;
+    private final HashMap<Integer, SeasonalData> seasonal;
+    private final ArrayList<SalesRule> sales_rules;
+    private final ForkJoinPool pool;
+    private int method;
+    private int product_id; //stored in every result
+    private Bootstrap bootstrap; //null for no confidence intervals
+
+    //Distributions of the base group, shared by every trial
+    private final ReferenceDistribution all_sales;
+    private final ReferenceDistribution all_chain;
+    private final ReferenceDistribution all_branch;
+
+    public TrialRunner(EstimateSource sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup all_outlets) {
+        this(sales, seasonal, all_outlets, ForkJoinPool.commonPool());
+    }
+
+    public TrialRunner(EstimateSource sales, HashMap<Integer, SeasonalData> seasonal, OutletGroup all_outlets, ForkJoinPool pool) {
+        this.sales = sales;
+        this.seasonal = seasonal;
+        this.all_outlets = all_outlets;
+        this.pool = pool;
+        this.sales_rules = new ArrayList<>();
+        this.method = 3; //random selection
+        this.all_sales = new ReferenceDistribution(all_outlets.outlet_sales_level);
+        this.all_chain = new ReferenceDistribution(all_outlets.outlet_chain);
+        this.all_branch = new ReferenceDistribution(all_outlets.outlet_branch);
+    }
+
+    /**
+     * Set the sampling method used for the trials
+     * @param method see OutletGroup.getSampleGroup
+     */
+    public void setMethod(int method) {
+        this.method = method;
+    }
+
+    /**
+     * @param product_id product the trials are run for, stored in every result
+     */
+    public void setProductId(int product_id) {
+        this.product_id = product_id;
+    }
+
+    /**
+     * Attach bootstrap confidence intervals of the prediction to every trial result
+     * @param bootstrap bootstrap to use, or null for no intervals
+     */
+    public void setBootstrap(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    public void addSalesRule(SalesRule rule) {
+        this.sales_rules.add(rule);
+    }
+
+    /**
+     * Run trialCount trials for each of the given fractions.
+     * Results are ordered by fraction first, trial second,
+     * i.e. result of trial t for fractions[f] is at f*trialCount+t
+     * @param fractions sample sizes to try (as 1/fraction of base group)
+     * @param trialCount number of trials per fraction
+     * @param seed seed of the random streams; same seed gives same results
+     * @return results of all the trials
+     */
+    public TrialResult[] runTrials(int[] fractions, int trialCount, long seed) {
+        return invokeTrials(fractions, trialCount, seed, null);
+    }
+
+    /**
+     * Run the trials as in runTrials(fractions, trialCount, seed), handing
+     * each result to the sink as soon as its trial finishes, so the results
+     * are written while the other trials are still running.
+     * The sink is called from the trial threads in the order the trials
+     * finish, so it must be thread safe, e.g. an AsyncResultSink.
+     * @param sink receiver of the results
+     * @return results of all the trials
+     * @throws IOException if the sink fails
+     */
+    public TrialResult[] runTrials(int[] fractions, int trialCount, long seed, ResultSink sink) throws IOException {
+        try {
+            return invokeTrials(fractions, trialCount, seed, sink);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private TrialResult[] invokeTrials(int[] fractions, int trialCount, long seed, ResultSink sink) {
+        int total = fractions.length * trialCount;
+        TrialResult[] results = new TrialResult[total];
+        SplittableRandom[] randoms = new SplittableRandom[total];
+        //Split the streams serially, so that each trial gets the same stream on every run
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int i = 0; i < total; i++) {
+            randoms[i] = root.split();
+        }
+        pool.invoke(new TrialTask(fractions, trialCount, randoms, results, sink, 0, total));
+        return results;
+    }
+
+    /**
+     * Draw a single sample group and calculate its similiarity and extrapolated prediction.
+     * @param fraction sample size as 1/fraction of base group
+     * @param trial running number of the trial, stored in the result
+     * @param rand random stream for this trial only
+     * @return result of the trial
+     */
+    public TrialResult runTrial(int fraction, int trial, SplittableRandom rand) {
+        long start = Metrics.start();
+        TrialResult result = new TrialResult(fraction, trial);
+        result.product_id = product_id;
+        OutletGroup sample = all_outlets.getSampleGroup(method, fraction, rand);
+
+        result.hellinger_sales = all_sales.HellingerDistance(sample.outlet_sales_level);
+        result.hellinger_chain = all_chain.HellingerDistance(sample.outlet_chain);
+        result.hellinger_branch = all_branch.HellingerDistance(sample.outlet_branch);
+
+        SalesPrediction sp = new SalesPrediction(sales, seasonal, sample);
+        for (SalesRule rule : sales_rules) {
+            sp.addSalesRule(rule);
+        }
+        result.prediction = KandiSampler.calculatePredictions(sp, all_outlets, all_outlets.outlet_count);
+        if (bootstrap != null) {
+            long bootstrap_start = Metrics.start();
+            result.interval = bootstrap.run(sp, sample, all_outlets.outlet_count, rand.nextLong());
+            Metrics.stop(Metrics.BOOTSTRAP, bootstrap_start);
+        }
+        Metrics.stop(Metrics.TRIAL, start);
+        Metrics.count(Metrics.TRIALS_COMPLETED, 1);
+        return result;
+    }
+
+    /**
+     * Prediction of the full base group, which the sample predictions extrapolate to
+     * @return total sales estimate of the base group
+     */
+    public double predictFullGroup() {
+        SalesPrediction sp = new SalesPrediction(sales, seasonal, all_outlets);
+        for (SalesRule rule : sales_rules) {
+            sp.addSalesRule(rule);
+        }
+        return KandiSampler.calculatePredictions(sp, all_outlets, all_outlets.outlet_count);
+    }
+
+    private class TrialTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] fractions;
+        private final int trialCount;
+        private final SplittableRandom[] randoms;
+        private final TrialResult[] results;
+        private final ResultSink sink; //null to only collect the results
+        private final int start;
+        private final int end;
+
+        TrialTask(int[] fractions, int trialCount, SplittableRandom[] randoms, TrialResult[] results, ResultSink sink, int start, int end) {
+            this.fractions = fractions;
+            this.trialCount = trialCount;
+            this.randoms = randoms;
+            this.results = results;
+            this.sink = sink;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end == start) return;
+                results[start] = runTrial(fractions[start / trialCount], start % trialCount, randoms[start]);
+                if (sink == null) return;
+                try {
+                    sink.accept(results[start]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            //A single trial is heavy enough to be worth a task of its own
+            int middle = (start + end) >>> 1;
+            invokeAll(new TrialTask(fractions, trialCount, randoms, results, sink, start, middle),
+                    new TrialTask(fractions, trialCount, randoms, results, sink, middle, end));
+        }
+    }
+}
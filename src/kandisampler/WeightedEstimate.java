@@ -0,0 +1,99 @@
+/*
+ * This software (code) is free to use as it is, as long as it's not used for commercial purposes
+ * and as long as you credit the author accordingly. For commercial purposes please contact the author.
+ * The software is provided "as is" with absolutely no warranty of any kind.
+ * Using this software is entirely up to you, and the author is in no way responsible for anything you do with it.
+ */
+package kandisampler;
+
+/**
+ * Exponentially weighted average of sales history.
+ * The latest issue has weight e^(-1/3), the one before it e^(-2/3) and so on.
+ * Weights only depend on the distance from the latest issue, so they and
+ * their running sums are calculated once into a shared table, which is
+ * grown when a longer history comes along.
+ * @author nikok
+ */
+public class WeightedEstimate {
+    /** Ratio of the weights of two consecutive issues, e^(-1/3) */
+    public static final double DECAY = Math.pow(Math.E, -1.0/3);
+
+    private static volatile Table table = new Table(64);
+
+    private static class Table {
+        final double[] weights; //weights[n] is the weight of the issue n steps before the latest
+        final double[] prefix; //prefix[n] is the sum of the first n weights
+
+        Table(int size) {
+            weights = new double[size];
+            prefix = new double[size + 1];
+            for (int n = 0; n < size; n++) {
+                weights[n] = Math.pow(Math.E, -(double)(n + 1)/3);
+                prefix[n + 1] = prefix[n] + weights[n];
+            }
+        }
+    }
+
+    private static Table table(int length) {
+        Table t = table;
+        if (t.weights.length >= length) return t;
+        synchronized (WeightedEstimate.class) {
+            t = table;
+            if (t.weights.length < length) {
+                t = new Table(Math.max(length, t.weights.length * 2));
+                table = t;
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Weight of the issue given steps before the latest one
+     * @param n 0 for the latest issue
+     */
+    public static double weight(int n) {
+        return table(n + 1).weights[n];
+    }
+
+    /**
+     * Sum of the weights of a history of given length
+     * @param length number of issues
+     */
+    public static double weightSum(int length) {
+        return table(length).prefix[length];
+    }
+
+    /**
+     * Weighted estimate of a whole sales history
+     * @param sold_copies sold copies per issue, oldest first
+     */
+    public static double estimate(int[] sold_copies) {
+        return estimate(sold_copies, 0, sold_copies.length);
+    }
+
+    /**
+     * Weighted estimate of a part of an array, oldest issue first
+     * @param sold_copies array holding the history
+     * @param offset position of the oldest issue
+     * @param length number of issues
+     * @return weighted average of the issues, NaN if there are none
+     */
+    public static double estimate(int[] sold_copies, int offset, int length) {
+        Table t = table(length);
+        double[] w = t.weights;
+        int last = offset + length - 1;
+        //Four independent sums so the multiply-adds can overlap
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int n = 0;
+        for (; n + 3 < length; n += 4) {
+            s0 += sold_copies[last - n] * w[n];
+            s1 += sold_copies[last - n - 1] * w[n + 1];
+            s2 += sold_copies[last - n - 2] * w[n + 2];
+            s3 += sold_copies[last - n - 3] * w[n + 3];
+        }
+        for (; n < length; n++) {
+            s0 += sold_copies[last - n] * w[n];
+        }
+        return ((s0 + s1) + (s2 + s3)) / t.prefix[length];
+    }
+}